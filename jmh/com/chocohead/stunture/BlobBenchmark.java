@@ -0,0 +1,87 @@
+package com.chocohead.stunture;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.chocohead.rift.ClassMapping;
+import com.chocohead.rift.MappingBlob;
+
+/**
+ * Benchmarks for writing and reading {@link MappingBlob}s, both fully read in and memory mapped
+ *
+ * @author Chocohead
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BlobBenchmark {
+	@Param({"1000", "10000", "100000"})
+	public int classes;
+
+	private MappingBlob blob;
+	private File written, scratch;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		SyntheticMappings inputs = SyntheticMappings.forScale(classes);
+		blob = inputs.loadBlob();
+		written = inputs.blob.toFile();
+		scratch = Files.createTempFile("stunture-jmh", ".blob").toFile();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(scratch.toPath());
+	}
+
+	@Benchmark
+	public void write() {
+		blob.write(scratch);
+	}
+
+	@Benchmark
+	public MappingBlob read() {
+		return MappingBlob.read(written);
+	}
+
+	/** Only mapping the blob in, without decoding any of its classes */
+	@Benchmark
+	public MappingBlob map() {
+		return MappingBlob.map(written);
+	}
+
+	/** Mapping the blob in then decoding every class, as a full remap would */
+	@Benchmark
+	public void mapAll(Blackhole blackhole) {
+		for (ClassMapping mapping : MappingBlob.map(written).mappings.values()) {
+			blackhole.consume(mapping);
+		}
+	}
+
+	/** Writing then reading the blob back */
+	@Benchmark
+	public MappingBlob roundTrip() {
+		blob.write(scratch);
+		return MappingBlob.read(scratch);
+	}
+}
@@ -0,0 +1,83 @@
+package com.chocohead.stunture;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for writing out every class of the synthetic Minecraft jar through a {@link JarWriter} at each compression
+ *
+ * @author Chocohead
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JarWriterBenchmark {
+	@Param({"1000", "10000", "100000"})
+	public int classes;
+
+	@Param({"STORE", "FAST", "DEFAULT", "MAXIMUM"})
+	public JarWriter.Compression compression;
+
+	private final Map<String, byte[]> entries = new LinkedHashMap<>();
+	private Path output;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		SyntheticMappings inputs = SyntheticMappings.forScale(classes);
+
+		try (ZipFile jar = new ZipFile(inputs.minecraft.toFile())) {
+			for (Enumeration<? extends ZipEntry> entries = jar.entries(); entries.hasMoreElements();) {
+				ZipEntry entry = entries.nextElement();
+
+				try (InputStream in = jar.getInputStream(entry)) {
+					this.entries.put(entry.getName(), ClasspathIndex.readFully(in));
+				}
+			}
+		}
+
+		output = Files.createTempFile("stunture-jmh", ".jar");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(output);
+	}
+
+	@Benchmark
+	public long write() throws IOException {
+		JarWriter out = new JarWriter(output, compression);
+
+		for (Entry<String, byte[]> entry : entries.entrySet()) {
+			out.add(entry.getKey(), entry.getValue());
+		}
+
+		out.close();
+		return out.getWrittenBytes();
+	}
+}
@@ -0,0 +1,112 @@
+package com.chocohead.stunture;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.chocohead.rift.ClassMapping;
+
+/**
+ * Benchmarks for each stage of building mappings with {@link MappingsLoader}, from parsing the SRG and CSV files through to inheritance propagation
+ *
+ * @author Chocohead
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MappingBuildBenchmark {
+	@Param({"1000", "10000", "100000"})
+	public int classes;
+
+	private SyntheticMappings inputs;
+	private final Executor executor = ForkJoinPool.commonPool();
+	private SrgMappings prepared;
+	private Map<String, String> methodNames, fieldNames;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, ExecutionException, InterruptedException {
+		inputs = SyntheticMappings.forScale(classes);
+
+		prepared = prepare();
+		methodNames = parseMethods();
+		fieldNames = parseFields();
+	}
+
+	@Benchmark
+	public SrgMappings parseSrg() {
+		return MappingsLoader.srgTask(SyntheticMappings.reader(inputs.srgs));
+	}
+
+	@Benchmark
+	public Map<String, String> parseMethods() {
+		return MappingsLoader.mcpTask(SyntheticMappings.reader(inputs.methods), new Metrics("benchmark"), "mcp-methods");
+	}
+
+	@Benchmark
+	public Map<String, String> parseFields() {
+		return MappingsLoader.mcpTask(SyntheticMappings.reader(inputs.fields), new Metrics("benchmark"), "mcp-fields");
+	}
+
+	@Benchmark
+	public Map<String, ClassFisher> scanJar() throws IOException {
+		try (ClassSource jar = ClassSource.map(inputs.minecraft)) {
+			return MappingsLoader.fishClasses(jar, executor, new Metrics("benchmark").start("jar")).join();
+		}
+	}
+
+	@Benchmark
+	public SrgMappings prepare() throws ExecutionException, InterruptedException {
+		return MappingsLoader.prepare(SyntheticMappings.reader(inputs.srgs), SyntheticMappings.reader(inputs.constructors), () -> ClassSource.map(inputs.minecraft), executor, new Metrics("benchmark")).get();
+	}
+
+	/** A fresh copy of the prepared {@link SrgMappings} for every invocation, as completing them changes them */
+	@State(Scope.Thread)
+	public static class PreparedCopy {
+		SrgMappings srg;
+
+		@Setup(Level.Invocation)
+		public void copy(MappingBuildBenchmark benchmark) {
+			Map<String, ClassMapping> classes = new HashMap<>(benchmark.prepared.classes.size() * 4 / 3 + 1);
+			for (ClassMapping mapping : benchmark.prepared.classes.values()) {
+				classes.put(mapping.notchName, new ClassMapping(mapping));
+			}
+
+			srg = new SrgMappings(classes);
+			srg.superclasses.putAll(benchmark.prepared.superclasses);
+			srg.interfaces.putAll(benchmark.prepared.interfaces);
+		}
+	}
+
+	/** Mushing in the MCP names and propagating them down the hierarchy, without any of the parsing */
+	@Benchmark
+	public Map<String, ClassMapping> complete(PreparedCopy copy) throws ExecutionException, InterruptedException {
+		return MappingsLoader.complete(CompletableFuture.completedFuture(copy.srg), CompletableFuture.completedFuture(methodNames), CompletableFuture.completedFuture(fieldNames), executor, new Metrics("benchmark")).get();
+	}
+
+	@Benchmark
+	public Map<String, ClassMapping> load() throws ExecutionException, InterruptedException {
+		return MappingsLoader.load(SyntheticMappings.reader(inputs.srgs), SyntheticMappings.reader(inputs.constructors),
+				SyntheticMappings.reader(inputs.methods), SyntheticMappings.reader(inputs.fields), inputs.minecraft);
+	}
+}
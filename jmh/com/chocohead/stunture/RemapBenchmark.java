@@ -0,0 +1,120 @@
+package com.chocohead.stunture;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.chocohead.rift.MappingBlob;
+import com.chocohead.rift.RemapperTables;
+import com.chocohead.stunture.JarWriter.Compression;
+
+/**
+ * End to end benchmarks of remapping a mod jar against the synthetic Minecraft jar, as {@link Main} does.
+ * <p>
+ * The classpath goes through a {@link ClasspathIndex} in a temporary directory under {@link SyntheticMappings#DEFAULT}, rather than the user's own index.
+ * The synthetic jar is indexed during setup, so every invocation reuses the same stub.
+ *
+ * @author Chocohead
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RemapBenchmark {
+	@Param({"1000", "10000", "100000"})
+	public int classes;
+
+	private SyntheticMappings inputs;
+	private MappingBlob blob;
+	private Path indexDirectory;
+	private ClasspathIndex index;
+	private Path output;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		inputs = SyntheticMappings.forScale(classes);
+		blob = inputs.loadBlob();
+		output = Files.createTempFile("stunture-jmh", ".jar");
+
+		Files.createDirectories(SyntheticMappings.DEFAULT);
+		indexDirectory = Files.createTempDirectory(SyntheticMappings.DEFAULT, "classpath");
+		index = new ClasspathIndex(indexDirectory);
+		index.resolve(inputs.minecraft);
+	}
+
+	@Setup(Level.Invocation)
+	public void clearOutput() throws IOException {
+		Files.deleteIfExists(output);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(output);
+
+		try (Stream<Path> files = Files.list(indexDirectory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(indexDirectory);
+	}
+
+	/** Setting up the remapper's mappings from a loaded blob */
+	@Benchmark
+	public Map<String, String> provideMappings() {
+		Map<String, String> classMap = new HashMap<>(), fieldMap = new HashMap<>(), methodMap = new HashMap<>();
+		Main.createProvider(blob).load(classMap, fieldMap, methodMap);
+		return methodMap;
+	}
+
+	/** Setting up the remapper's reversed mappings from a loaded blob which has already built them, to compare against {@link #provideMappings()} */
+	@Benchmark
+	public Map<String, String> provideReverseMappings() {
+		Map<String, String> classMap = new HashMap<>(), fieldMap = new HashMap<>(), methodMap = new HashMap<>();
+		Main.createProvider(blob.getReverseRemapperTables()).load(classMap, fieldMap, methodMap);
+		return methodMap;
+	}
+
+	/** Building the reversed mappings from scratch, as the first reobfuscation with a blob has to */
+	@Benchmark
+	public RemapperTables reverseMappings() {
+		return MappingBlob.read(inputs.blob.toFile()).getReverseRemapperTables();
+	}
+
+	/** Reading the blob and remapping the mod with it, as a single run of {@link Main} would */
+	@Benchmark
+	public void remap() throws IOException {
+		remap(MappingBlob.read(inputs.blob.toFile()));
+	}
+
+	/** Remapping the mod with an already loaded blob, as the {@link RemapDaemon} would */
+	@Benchmark
+	public void remapLoaded() throws IOException {
+		remap(blob);
+	}
+
+	private void remap(MappingBlob blob) throws IOException {
+		Metrics metrics = new Metrics("benchmark");
+		Main.remap(blob.getRemapperTables(), inputs.mod, output, Compression.DEFAULT, metrics, Main.indexClasspath(index, metrics, inputs.minecraft), null);
+	}
+}
@@ -0,0 +1,375 @@
+package com.chocohead.stunture;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import com.chocohead.rift.MappingBlob;
+
+/**
+ * A deterministic generator of synthetic SRG, MCP and jar inputs, so the benchmarks can run without a Minecraft Gradle cache.
+ * <p>
+ * Generating the same number of classes with the same seed always produces the same files. Each scale is only generated once,
+ * into {@link #DEFAULT} unless the <code>stunture.jmh.dir</code> system property says otherwise.
+ *
+ * @author Chocohead
+ */
+class SyntheticMappings {
+	/** Where generated inputs are kept between benchmark runs */
+	public static final Path DEFAULT = Paths.get(System.getProperty("stunture.jmh.dir", System.getProperty("java.io.tmpdir") + "/stunture-jmh"));
+	/** The seed used for every scale unless otherwise given */
+	public static final long SEED = 0x5774_7572_65L;
+
+	/** The generated <code>joined.srg</code> file */
+	public final Path srgs;
+	/** The generated <code>constructors.txt</code> file */
+	public final Path constructors;
+	/** The generated MCP <code>methods.csv</code> file */
+	public final Path methods;
+	/** The generated MCP <code>fields.csv</code> file */
+	public final Path fields;
+	/** The generated obfuscated "Minecraft" jar the SRG and MCP files map */
+	public final Path minecraft;
+	/** A generated mod jar which uses classes, methods and fields from {@link #minecraft}, for remapping */
+	public final Path mod;
+	/** The {@link MappingBlob} built from the other inputs, only written once {@link #loadBlob()} is first called */
+	public final Path blob;
+
+	private SyntheticMappings(Path directory) {
+		srgs = directory.resolve("joined.srg");
+		constructors = directory.resolve("constructors.txt");
+		methods = directory.resolve("methods.csv");
+		fields = directory.resolve("fields.csv");
+		minecraft = directory.resolve("minecraft.jar");
+		mod = directory.resolve("mod.jar");
+		blob = directory.resolve("mappings.blob");
+	}
+
+	/** Get the {@link MappingBlob} for the inputs, building and writing it to {@link #blob} if it hasn't been already */
+	MappingBlob loadBlob() throws IOException {
+		if (Files.exists(blob)) return MappingBlob.read(blob.toFile());
+
+		MappingBlob out;
+		try {
+			out = new MappingBlob(MappingsLoader.load(reader(srgs), reader(constructors), reader(methods), reader(fields), minecraft));
+		} catch (ExecutionException | InterruptedException e) {
+			throw new RuntimeException("Error building synthetic mappings", e);
+		}
+
+		Path temp = Files.createTempFile(blob.getParent(), "mappings", ".tmp");
+		out.write(temp.toFile());
+		Files.move(temp, blob, StandardCopyOption.REPLACE_EXISTING);
+		return out;
+	}
+
+	/** Make a supplier of readers for the given file */
+	static MappingSupplier<Reader> reader(Path file) {
+		return () -> Files.newBufferedReader(file, StandardCharsets.UTF_8);
+	}
+
+	/** Get the inputs for the given number of classes, generating them with {@link #SEED} if they don't already exist */
+	static SyntheticMappings forScale(int classes) throws IOException {
+		return generate(DEFAULT.resolve(classes + "-" + Long.toHexString(SEED)), classes, SEED);
+	}
+
+	/**
+	 * Generate inputs for the given number of classes into the given directory, unless they were already fully generated there
+	 *
+	 * @param directory Where to generate the inputs
+	 * @param classes The number of classes to generate
+	 * @param seed The seed for the random choices made in generating
+	 *
+	 * @return The generated inputs
+	 *
+	 * @throws IOException If an error occurs writing the inputs
+	 */
+	static SyntheticMappings generate(Path directory, int classes, long seed) throws IOException {
+		SyntheticMappings out = new SyntheticMappings(directory);
+		Path complete = directory.resolve("complete");
+		if (Files.exists(complete)) return out;
+
+		Files.createDirectories(directory);
+		new Generator(classes, new Random(seed)).write(out);
+		Files.createFile(complete);
+
+		return out;
+	}
+
+	/** A single member of a generated class */
+	private static class Member {
+		public final String name, desc, srg;
+
+		public Member(String name, String desc, String srg) {
+			this.name = name;
+			this.desc = desc;
+			this.srg = srg;
+		}
+	}
+
+	private static class Generator {
+		private final Random random;
+		private final String[] notchNames, mcpNames;
+		private final int[] superclasses;
+		private final int[][] interfaces;
+		private final boolean[] isInterface;
+		private final List<List<Member>> methods, fields;
+
+		Generator(int classes, Random random) {
+			this.random = random;
+			notchNames = new String[classes];
+			mcpNames = new String[classes];
+			superclasses = new int[classes];
+			interfaces = new int[classes][];
+			isInterface = new boolean[classes];
+			methods = new ArrayList<>(classes);
+			fields = new ArrayList<>(classes);
+
+			List<Integer> concrete = new ArrayList<>();
+			List<Integer> interfaceTypes = new ArrayList<>();
+			int methodID = 1000, fieldID = 1000;
+
+			for (int i = 0; i < classes; i++) {
+				notchNames[i] = obfuscate(i);
+				mcpNames[i] = "net/minecraft/src" + i / 500 + "/Type" + i;
+				isInterface[i] = i > 0 && random.nextInt(8) == 0;
+
+				//Two in three classes extend an earlier one, a quarter implement up to two earlier interfaces
+				superclasses[i] = !isInterface[i] && !concrete.isEmpty() && random.nextInt(3) > 0 ? concrete.get(random.nextInt(concrete.size())) : -1;
+				Set<Integer> implemented = new HashSet<>();
+				if (!interfaceTypes.isEmpty() && random.nextInt(4) == 0) {
+					for (int j = 1 + random.nextInt(2); j > 0; j--) {
+						implemented.add(interfaceTypes.get(random.nextInt(interfaceTypes.size())));
+					}
+				}
+				interfaces[i] = implemented.stream().mapToInt(Integer::intValue).toArray();
+
+				List<Member> classFields = new ArrayList<>();
+				if (!isInterface[i]) {
+					for (int j = random.nextInt(4); j > 0; j--) {
+						String name = obfuscate(classFields.size());
+						classFields.add(new Member(name, randomType(i), "field_" + fieldID++ + '_' + name));
+					}
+				}
+				fields.add(classFields);
+
+				List<Member> classMethods = new ArrayList<>();
+				Set<String> seen = new HashSet<>();
+				if (superclasses[i] >= 0 && random.nextInt(4) == 0) {
+					//Override something from the superclass, which keeps its SRG name
+					List<Member> parent = methods.get(superclasses[i]);
+					if (!parent.isEmpty()) {
+						Member overridden = parent.get(random.nextInt(parent.size()));
+						classMethods.add(overridden);
+						seen.add(overridden.name + overridden.desc);
+					}
+				}
+				for (int j = random.nextInt(5); j > 0; j--) {
+					String name = obfuscate(random.nextInt(6));
+					String desc = '(' + randomType(i) + "I)V";
+					if (seen.add(name + desc)) classMethods.add(new Member(name, desc, "func_" + methodID++ + '_' + name));
+				}
+				methods.add(classMethods);
+
+				(isInterface[i] ? interfaceTypes : concrete).add(i);
+			}
+		}
+
+		/** Produce a short obfuscated style name from the given index, as <code>a</code> to <code>z</code> then <code>aa</code> onwards */
+		private static String obfuscate(int index) {
+			StringBuilder name = new StringBuilder();
+
+			do {
+				name.append((char) ('a' + index % 26));
+				index = index / 26 - 1;
+			} while (index >= 0);
+
+			return name.reverse().toString();
+		}
+
+		private String randomType(int upTo) {
+			switch (random.nextInt(4)) {
+			case 0:
+				return "I";
+
+			case 1:
+				return "Ljava/lang/String;";
+
+			default:
+				return 'L' + notchNames[random.nextInt(upTo + 1)] + ';';
+			}
+		}
+
+		/** Swap every generated class in the given Notch description for its MCP name */
+		private String remapDesc(String desc) {
+			StringBuilder out = new StringBuilder(desc.length() * 2);
+
+			for (int i = 0; i < desc.length(); i++) {
+				char c = desc.charAt(i);
+				out.append(c);
+
+				if (c == 'L') {
+					int end = desc.indexOf(';', i);
+					String type = desc.substring(i + 1, end);
+					out.append(type.startsWith("java/") ? type : mcpNames[indexOf(type)]).append(';');
+					i = end;
+				}
+			}
+
+			return out.toString();
+		}
+
+		private static int indexOf(String obfuscated) {
+			int index = 0;
+
+			for (int i = 0; i < obfuscated.length(); i++) {
+				index = index * 26 + obfuscated.charAt(i) - 'a' + 1;
+			}
+
+			return index - 1;
+		}
+
+		void write(SyntheticMappings out) throws IOException {
+			writeMappings(out);
+			writeMinecraft(out.minecraft);
+			writeMod(out.mod);
+		}
+
+		private void writeMappings(SyntheticMappings out) throws IOException {
+			try (Writer srgs = newWriter(out.srgs); Writer constructors = newWriter(out.constructors);
+					Writer methodNames = newWriter(out.methods); Writer fieldNames = newWriter(out.fields)) {
+				srgs.write("PK: . net/minecraft/src\n");
+				methodNames.write("searge,name,side,desc\n");
+				fieldNames.write("searge,name,side,desc\n");
+				Set<String> namedMethods = new HashSet<>();
+
+				for (int i = 0; i < notchNames.length; i++) {
+					srgs.write("CL: " + notchNames[i] + ' ' + mcpNames[i] + '\n');
+
+					for (Member field : fields.get(i)) {
+						srgs.write("FD: " + notchNames[i] + '/' + field.name + ' ' + mcpNames[i] + '/' + field.srg + '\n');
+						//Two in three members have MCP names, the rest stay as SRG names
+						if (random.nextInt(3) > 0) fieldNames.write(field.srg + ",field" + field.srg.substring(5) + ",2,A generated field\n");
+					}
+
+					for (Member method : methods.get(i)) {
+						srgs.write("MD: " + notchNames[i] + '/' + method.name + ' ' + method.desc + ' ' + mcpNames[i] + '/' + method.srg + ' ' + remapDesc(method.desc) + '\n');
+						if (namedMethods.add(method.srg) && random.nextInt(3) > 0) {
+							methodNames.write(method.srg + ",method" + method.srg.substring(4) + ",2,\"A generated method, with a comma\"\n");
+						}
+					}
+
+					if (!isInterface[i] && random.nextBoolean()) {
+						constructors.write(1000 + i + " " + mcpNames[i] + " (L" + mcpNames[random.nextInt(i + 1)] + ";Ljava/lang/String;I)V\n");
+					}
+				}
+			}
+		}
+
+		private static Writer newWriter(Path file) throws IOException {
+			return new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), 1 << 16);
+		}
+
+		private void writeMinecraft(Path jar) throws IOException {
+			try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+				for (int i = 0; i < notchNames.length; i++) {
+					ClassWriter writer = new ClassWriter(0);
+
+					String[] interfaceNames = new String[interfaces[i].length];
+					for (int j = 0; j < interfaceNames.length; j++) {
+						interfaceNames[j] = notchNames[interfaces[i][j]];
+					}
+					int access = isInterface[i] ? Opcodes.ACC_PUBLIC | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT : Opcodes.ACC_PUBLIC;
+					writer.visit(Opcodes.V1_8, access, notchNames[i], null, superclasses[i] >= 0 ? notchNames[superclasses[i]] : "java/lang/Object", interfaceNames);
+
+					for (Member field : fields.get(i)) {
+						writer.visitField(Opcodes.ACC_PUBLIC, field.name, field.desc, null, null).visitEnd();
+					}
+
+					for (Member method : methods.get(i)) {
+						if (isInterface[i]) {
+							writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, method.name, method.desc, null, null).visitEnd();
+						} else {
+							MethodVisitor visitor = writer.visitMethod(Opcodes.ACC_PUBLIC, method.name, method.desc, null, null);
+							visitor.visitCode();
+							visitor.visitInsn(Opcodes.RETURN);
+							visitor.visitMaxs(0, 3);
+							visitor.visitEnd();
+						}
+					}
+
+					writer.visitEnd();
+					out.putNextEntry(new JarEntry(notchNames[i] + ".class"));
+					out.write(writer.toByteArray());
+					out.closeEntry();
+				}
+			}
+		}
+
+		/** Write a mod with a class for every ten generated, each extending one and using the methods and fields of another */
+		private void writeMod(Path jar) throws IOException {
+			List<Integer> concrete = new ArrayList<>();
+			for (int i = 0; i < notchNames.length; i++) {
+				if (!isInterface[i]) concrete.add(i);
+			}
+
+			try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+				out.putNextEntry(new JarEntry("mod.json"));
+				out.write("{\"id\": \"synthetic\"}".getBytes(StandardCharsets.UTF_8));
+				out.closeEntry();
+
+				for (int i = 0, count = Math.max(1, notchNames.length / 10); i < count; i++) {
+					String name = "mod/Synthetic" + i;
+					int parent = concrete.get(random.nextInt(concrete.size()));
+					int target = random.nextInt(notchNames.length);
+
+					ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+					writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, notchNames[parent], null);
+
+					MethodVisitor visitor = writer.visitMethod(Opcodes.ACC_PUBLIC, "run", "(L" + notchNames[target] + ";)V", null, null);
+					visitor.visitCode();
+					for (Member method : methods.get(target)) {
+						visitor.visitVarInsn(Opcodes.ALOAD, 1);
+						visitor.visitInsn(Opcodes.ACONST_NULL);
+						visitor.visitInsn(Opcodes.ICONST_0);
+						if (isInterface[target]) {
+							visitor.visitMethodInsn(Opcodes.INVOKEINTERFACE, notchNames[target], method.name, method.desc, true);
+						} else {
+							visitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, notchNames[target], method.name, method.desc, false);
+						}
+					}
+					for (Member field : fields.get(target)) {
+						visitor.visitVarInsn(Opcodes.ALOAD, 1);
+						visitor.visitFieldInsn(Opcodes.GETFIELD, notchNames[target], field.name, field.desc);
+						visitor.visitInsn(Opcodes.POP);
+					}
+					visitor.visitInsn(Opcodes.RETURN);
+					visitor.visitMaxs(0, 0);
+					visitor.visitEnd();
+
+					writer.visitEnd();
+					out.putNextEntry(new JarEntry(name + ".class"));
+					out.write(writer.toByteArray());
+					out.closeEntry();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,330 @@
+package com.chocohead.rift;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.BiFunction;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32;
+
+/**
+ * The difference between two {@link MappingBlob}s, so a blob can be updated to a newer version without rebuilding or downloading all of it.
+ * Deltas are laid out as:
+ * <ul>
+ * <li>A header of {@link #MAGIC} and the format {@link #VERSION}</li>
+ * <li>The checksums of the binary blobs the delta goes from and to, along with the length of the blob it goes to</li>
+ * <li>A string table of every name used in the delta</li>
+ * <li>The Notch names of each class which was removed</li>
+ * <li>Each class which was added or changed, as its Notch and MCP names followed by the constructors removed and added,
+ * the methods removed and the methods added or renamed, then the same for fields</li>
+ * <li>A trailing {@link CRC32} of everything before it</li>
+ * </ul>
+ * Applying a delta checks the blob it is given is the one the delta was made from, and that the result is byte for byte the blob the delta was made to.
+ *
+ * @author Chocohead
+ */
+public final class BlobDelta {
+	/** The first bytes of every delta, <code>STND</code> */
+	static final int MAGIC = 0x53544E44;
+	/** The current version of the format, which changes whenever the blob format does as the checksums are of the written blobs */
+	static final int VERSION = 2;
+
+	private BlobDelta() {
+	}
+
+	/**
+	 * Write the changes needed to turn one blob into another
+	 *
+	 * @param from The blob the delta will be applied to
+	 * @param to The blob applying the delta will produce
+	 * @param out The file to write the delta to
+	 */
+	public static void write(MappingBlob from, MappingBlob to, File out) {
+		try {
+			Files.write(out.toPath(), diff(from, to));
+		} catch (IOException e) {
+			throw new RuntimeException("Error writing mapping delta", e);
+		}
+	}
+
+	static byte[] diff(MappingBlob from, MappingBlob to) throws IOException {
+		byte[] target = serialise(to);
+
+		Map<String, Integer> pool = new HashMap<>();
+		List<String> strings = new ArrayList<>();
+		List<Integer> removed = new ArrayList<>();
+		List<int[][]> changed = new ArrayList<>();
+
+		for (String name : new TreeSet<>(from.mappings.keySet())) {
+			if (!to.mappings.containsKey(name)) removed.add(BlobFormat.intern(pool, strings, name));
+		}
+
+		for (ClassMapping mapping : new TreeMap<>(to.mappings).values()) {
+			ClassMapping old = from.mappings.get(mapping.notchName);
+			Set<String> oldConstructors = old != null ? old.constructors : Collections.emptySet();
+			Map<String, String> oldMethods = old != null ? old.methods : Collections.emptyMap();
+			Map<String, String> oldFields = old != null ? old.fields : Collections.emptyMap();
+			BiFunction<String, String, String> oldMethod = old != null ? old::getMethod : (name, desc) -> null;
+			BiFunction<String, String, String> oldField = old != null ? old::getField : (name, desc) -> null;
+
+			List<List<String>> changes = Arrays.asList(
+				removedKeys(oldConstructors, mapping.constructors),
+				removedKeys(mapping.constructors, oldConstructors),
+				removedMembers(MemberTable.METHOD, oldMethods, mapping::getMethod),
+				changedMembers(MemberTable.METHOD, mapping.methods, oldMethod),
+				removedMembers(MemberTable.FIELD, oldFields, mapping::getField),
+				changedMembers(MemberTable.FIELD, mapping.fields, oldField)
+			);
+			if (old != null && old.mcpName.equals(mapping.mcpName) && changes.stream().allMatch(List::isEmpty)) continue;
+
+			int[][] section = new int[changes.size() + 1][];
+			section[0] = new int[] {BlobFormat.intern(pool, strings, mapping.notchName), BlobFormat.intern(pool, strings, mapping.mcpName)};
+			for (int i = 0; i < changes.size(); i++) {
+				section[i + 1] = changes.get(i).stream().mapToInt(string -> BlobFormat.intern(pool, strings, string)).toArray();
+			}
+			changed.add(section);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 12);
+		DataOutputStream data = new DataOutputStream(bytes);
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		data.writeInt(checksum(serialise(from)));
+		data.writeInt(checksum(target));
+		data.writeInt(target.length);
+		BlobFormat.writeStrings(data, strings);
+
+		BlobFormat.writeVarInt(data, removed.size());
+		for (int name : removed) {
+			BlobFormat.writeVarInt(data, name);
+		}
+
+		BlobFormat.writeVarInt(data, changed.size());
+		for (int[][] changes : changed) {
+			BlobFormat.writeVarInt(data, changes[0][0]);
+			BlobFormat.writeVarInt(data, changes[0][1]);
+
+			for (int i = 1; i < changes.length; i++) {
+				BlobFormat.writeVarInt(data, changes[i].length);
+				for (int string : changes[i]) {
+					BlobFormat.writeVarInt(data, string);
+				}
+			}
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(bytes.toByteArray(), 0, bytes.size());
+		data.writeInt((int) crc.getValue());
+
+		return bytes.toByteArray();
+	}
+
+	/** Each of the given keys which aren't in the given remaining keys, in sorted order */
+	private static List<String> removedKeys(Collection<String> keys, Collection<String> remaining) {
+		List<String> out = new ArrayList<>();
+
+		for (String key : keys) {
+			if (!remaining.contains(key)) out.add(key);
+		}
+
+		out.sort(null);
+		return out;
+	}
+
+	/** The joined key of each of the given members which the given lookup doesn't have, sorted by key */
+	private static List<String> removedMembers(String separator, Map<String, String> members, BiFunction<String, String, String> remaining) {
+		List<String> out = new ArrayList<>();
+
+		MemberTable.forEach(separator, members, (name, desc, value) -> {
+			if (remaining.apply(name, desc) == null) out.add(name + separator + desc);
+		});
+
+		return out;
+	}
+
+	/** Each joined key and value pair in the given members which the given old lookup doesn't have the same, sorted by key */
+	private static List<String> changedMembers(String separator, Map<String, String> members, BiFunction<String, String, String> oldMembers) {
+		List<String> out = new ArrayList<>();
+
+		MemberTable.forEach(separator, members, (name, desc, value) -> {
+			if (!Objects.equals(oldMembers.apply(name, desc), value)) {
+				out.add(name + separator + desc);
+				out.add(value);
+			}
+		});
+
+		return out;
+	}
+
+	/**
+	 * Apply the given delta to the given blob file, writing the resulting blob out.
+	 * The base blob's checksum is checked before it is even decoded, and the result's before it is written.
+	 *
+	 * @param base The blob file the delta was made from
+	 * @param delta The delta to apply
+	 * @param out Where to write the updated blob, which can be the same file as the base
+	 */
+	public static void apply(File base, File delta, File out) {
+		try {
+			byte[] contents = Files.readAllBytes(base.toPath());
+			if (!BlobFormat.isBinary(contents)) throw new IOException("Mapping delta can only be applied to binary blobs");
+
+			ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(delta.toPath()));
+			int fromChecksum = checkHeader(buffer);
+			if (checksum(contents) != fromChecksum) throw new IOException("Mapping delta is for a different blob, expected checksum " + Integer.toHexString(fromChecksum) + " but was " + Integer.toHexString(checksum(contents)));
+
+			byte[] result = apply(BlobFormat.read(ByteBuffer.wrap(contents)), buffer);
+			Path temp = Files.createTempFile(out.getAbsoluteFile().toPath().getParent(), out.getName(), ".tmp");
+			try {
+				Files.write(temp, result);
+				Files.move(temp, out.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Error applying mapping delta", e);
+		}
+	}
+
+	/**
+	 * Apply the given delta to the given blob
+	 *
+	 * @param base The blob the delta was made from
+	 * @param delta The delta to apply
+	 *
+	 * @return The blob the delta was made to
+	 */
+	public static MappingBlob apply(MappingBlob base, File delta) {
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(delta.toPath()));
+			int fromChecksum = checkHeader(buffer);
+			int baseChecksum = checksum(serialise(base));
+			if (baseChecksum != fromChecksum) throw new IOException("Mapping delta is for a different blob, expected checksum " + Integer.toHexString(fromChecksum) + " but was " + Integer.toHexString(baseChecksum));
+
+			return BlobFormat.read(ByteBuffer.wrap(apply(base, buffer)));
+		} catch (IOException e) {
+			throw new RuntimeException("Error applying mapping delta", e);
+		}
+	}
+
+	/**
+	 * Check the buffer holds a supported delta with a matching checksum
+	 *
+	 * @param buffer The buffer holding the entire delta, left positioned at the checksum of the blob it goes to
+	 *
+	 * @return The checksum of the blob the delta goes from
+	 *
+	 * @throws IOException If the buffer doesn't hold a valid delta
+	 */
+	private static int checkHeader(ByteBuffer buffer) throws IOException {
+		if (buffer.remaining() < 24) throw new IOException("Truncated mapping delta, only " + buffer.remaining() + " bytes long");
+
+		int magic = buffer.getInt();
+		if (magic != MAGIC) throw new IOException("Unexpected magic in mapping delta: 0x" + Integer.toHexString(magic));
+		int version = buffer.getInt();
+		if (version != VERSION) throw new IOException("Unsupported mapping delta version: " + version);
+
+		int end = buffer.limit() - 4;
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), buffer.arrayOffset(), end);
+		if ((int) crc.getValue() != buffer.getInt(end)) {
+			throw new IOException("Mapping delta checksum mismatch, expected " + Integer.toHexString(buffer.getInt(end)) + " but was " + Long.toHexString(crc.getValue()));
+		}
+
+		return buffer.getInt();
+	}
+
+	/** Apply the rest of the given delta to the given blob, returning the verified binary form of the result */
+	private static byte[] apply(MappingBlob base, ByteBuffer buffer) throws IOException {
+		int toChecksum = buffer.getInt();
+		int toLength = buffer.getInt();
+
+		String[] strings = new String[BlobFormat.readVarInt(buffer)];
+		for (int i = 0; i < strings.length; i++) {
+			strings[i] = BlobFormat.readString(buffer);
+		}
+		IntFunction<String> string = index -> strings[index];
+
+		Map<String, ClassMapping> mappings = new HashMap<>(base.mappings);
+		List<ClassMapping> removed = new ArrayList<>();
+		List<ClassMapping> added = new ArrayList<>();
+		for (int i = BlobFormat.readVarInt(buffer); i > 0; i--) {
+			String name = string.apply(BlobFormat.readVarInt(buffer));
+			ClassMapping old = mappings.remove(name);
+			if (old == null) throw new IOException("Mapping delta removes " + name + " which isn't in the blob");
+			removed.add(old);
+		}
+
+		for (int i = BlobFormat.readVarInt(buffer); i > 0; i--) {
+			ClassMapping mapping = new ClassMapping(string.apply(BlobFormat.readVarInt(buffer)), string.apply(BlobFormat.readVarInt(buffer)));
+
+			ClassMapping old = mappings.get(mapping.notchName);
+			if (old != null) {
+				removed.add(old);
+				mapping.constructors.addAll(old.constructors);
+				mapping.methods.putAll(old.methods);
+				mapping.fields.putAll(old.fields);
+			}
+
+			for (int j = BlobFormat.readVarInt(buffer); j > 0; j--) {
+				mapping.constructors.remove(string.apply(BlobFormat.readVarInt(buffer)));
+			}
+			for (int j = BlobFormat.readVarInt(buffer); j > 0; j--) {
+				mapping.constructors.add(string.apply(BlobFormat.readVarInt(buffer)));
+			}
+			applyMembers(buffer, string, mapping.methods);
+			applyMembers(buffer, string, mapping.fields);
+
+			mappings.put(mapping.notchName, mapping);
+			added.add(mapping);
+		}
+
+		if (buffer.remaining() != 4) throw new IOException("Mapping delta has " + (buffer.remaining() - 4) + " unexpected trailing bytes");
+
+		//Only the tables for the classes which changed need redoing, the result is still checked against what a full rebuild would give
+		RemapperTables tables = RemapperTables.update(base.getRemapperTables(), removed, added);
+		byte[] result = serialise(new MappingBlob(mappings, () -> tables));
+		if (result.length != toLength || checksum(result) != toChecksum) {
+			throw new IOException("Applying mapping delta produced the wrong blob, expected checksum " + Integer.toHexString(toChecksum) + " but was " + Integer.toHexString(checksum(result)));
+		}
+		return result;
+	}
+
+	private static void applyMembers(ByteBuffer buffer, IntFunction<String> strings, Map<String, String> members) {
+		for (int i = BlobFormat.readVarInt(buffer); i > 0; i--) {
+			members.remove(strings.apply(BlobFormat.readVarInt(buffer)));
+		}
+
+		for (int i = BlobFormat.readVarInt(buffer) / 2; i > 0; i--) {
+			members.put(strings.apply(BlobFormat.readVarInt(buffer)), strings.apply(BlobFormat.readVarInt(buffer)));
+		}
+	}
+
+	/** Write the given blob in the binary blob format */
+	private static byte[] serialise(MappingBlob blob) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+		BlobFormat.write(blob.mappings, blob.getRemapperTables(), out);
+		return out.toByteArray();
+	}
+
+	/** The checksum a binary blob ends with */
+	private static int checksum(byte[] blob) {
+		return ByteBuffer.wrap(blob, blob.length - 4, 4).getInt();
+	}
+}
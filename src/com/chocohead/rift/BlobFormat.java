@@ -0,0 +1,402 @@
+package com.chocohead.rift;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * The compact binary form of a {@link MappingBlob}, laid out as:
+ * <ul>
+ * <li>A header of {@link #MAGIC} and the format {@link #VERSION}</li>
+ * <li>A string table of every name, description and key used, each only once</li>
+ * <li>The class table, each class section prefixed by its length then holding the Notch and MCP name
+ * and the length prefixed constructor, method and field sections as string table indices</li>
+ * <li>The {@link RemapperTables}, as the class, method and field tables of key and value string table indices (from version 2)</li>
+ * <li>The offset index (from version 3), as fixed width offsets of each string then each class section, the class indices sorted by MCP name,
+ * then the offset of the {@link RemapperTables} and of the offset index itself</li>
+ * <li>A trailing {@link CRC32} of everything before it</li>
+ * </ul>
+ * Classes and their members are written in sorted order so the same mappings always produce the same bytes. The class sections being sorted
+ * by Notch name and the offset index together let a blob be searched in place without reading through it first.
+ *
+ * @author Chocohead
+ */
+final class BlobFormat {
+	/** The first bytes of every binary blob, <code>STNB</code> */
+	static final int MAGIC = 0x53544E42;
+	/** The current version of the format */
+	static final int VERSION = 3;
+
+	private BlobFormat() {
+	}
+
+	/** Whether the given first bytes of a file are from a binary blob rather than a serialised one */
+	static boolean isBinary(byte[] start) {
+		return start.length >= 4 && ((start[0] & 0xFF) << 24 | (start[1] & 0xFF) << 16 | (start[2] & 0xFF) << 8 | start[3] & 0xFF) == MAGIC;
+	}
+
+	static void write(Map<String, ClassMapping> mappings, RemapperTables tables, OutputStream out) throws IOException {
+		Map<String, Integer> pool = new HashMap<>();
+		List<String> strings = new ArrayList<>();
+		byte[] body = writeBody(mappings, tables, pool, strings);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length + (1 << 16));
+		DataOutputStream data = new DataOutputStream(bytes);
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		writeStrings(data, strings);
+		data.write(body);
+		writeIndex(data, ByteBuffer.wrap(bytes.toByteArray()), mappings.values());
+
+		CRC32 crc = new CRC32();
+		crc.update(bytes.toByteArray(), 0, bytes.size());
+		data.writeInt((int) crc.getValue());
+
+		bytes.writeTo(out);
+	}
+
+	/**
+	 * Write the class table and {@link RemapperTables} of a blob, adding every string they use to the given string table
+	 *
+	 * @param mappings The mappings to write
+	 * @param tables The tables flattened from the mappings
+	 * @param pool The index of each string already in the string table
+	 * @param strings The string table, which any new strings are added to the end of
+	 *
+	 * @return The encoded class table and tables, whose indices refer to the given string table
+	 */
+	static byte[] writeBody(Map<String, ClassMapping> mappings, RemapperTables tables, Map<String, Integer> pool, List<String> strings) throws IOException {
+		List<ClassMapping> classes = new ArrayList<>(mappings.values());
+		classes.sort((a, b) -> a.notchName.compareTo(b.notchName));
+
+		List<int[][]> sections = new ArrayList<>(classes.size());
+		for (ClassMapping mapping : classes) {
+			sections.add(new int[][] {
+				{intern(pool, strings, mapping.notchName), intern(pool, strings, mapping.mcpName)},
+				internAll(pool, strings, mapping.constructors),
+				internAll(pool, strings, mapping.methods),
+				internAll(pool, strings, mapping.fields)
+			});
+		}
+		int[][] flatTables = {
+			internAll(pool, strings, tables.classes),
+			internAll(pool, strings, tables.methods),
+			internAll(pool, strings, tables.fields)
+		};
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+		DataOutputStream data = new DataOutputStream(bytes);
+
+		writeVarInt(data, sections.size());
+		ByteArrayOutputStream sectionBytes = new ByteArrayOutputStream();
+		DataOutputStream section = new DataOutputStream(sectionBytes);
+		for (int[][] mapping : sections) {
+			sectionBytes.reset();
+
+			writeVarInt(section, mapping[0][0]);
+			writeVarInt(section, mapping[0][1]);
+			writeMembers(section, mapping[1], 1);
+			writeMembers(section, mapping[2], 2);
+			writeMembers(section, mapping[3], 2);
+
+			data.writeInt(sectionBytes.size());
+			sectionBytes.writeTo(data);
+		}
+
+		for (int[] table : flatTables) {
+			writeVarInt(data, table.length / 2);
+			for (int entry : table) {
+				writeVarInt(data, entry);
+			}
+		}
+
+		return bytes.toByteArray();
+	}
+
+	/** Write the offset index for the blob so far in the given buffer, whose class sections hold the given mappings */
+	private static void writeIndex(DataOutputStream out, ByteBuffer blob, Collection<ClassMapping> mappings) throws IOException {
+		int indexOffset = blob.limit();
+		blob.position(8);
+
+		for (int i = readVarInt(blob); i > 0; i--) {
+			out.writeInt(blob.position());
+			skipString(blob);
+		}
+
+		int classCount = readVarInt(blob);
+		for (int i = 0; i < classCount; i++) {
+			out.writeInt(blob.position());
+			blob.position(blob.getInt() + blob.position());
+		}
+		int tablesOffset = blob.position();
+
+		//The class sections are in Notch name order, so the index of each class is its place in that order
+		String[] mcpNames = mappings.stream().sorted((a, b) -> a.notchName.compareTo(b.notchName)).map(mapping -> mapping.mcpName).toArray(String[]::new);
+		int[] byMcp = IntStream.range(0, mcpNames.length).boxed().sorted((a, b) -> mcpNames[a].compareTo(mcpNames[b])).mapToInt(Integer::intValue).toArray();
+		for (int index : byMcp) {
+			out.writeInt(index);
+		}
+
+		out.writeInt(tablesOffset);
+		out.writeInt(indexOffset);
+	}
+
+	/** Write the given string table, as its length followed by each length prefixed string */
+	static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+		writeVarInt(out, strings.size());
+		for (String string : strings) {
+			byte[] utf = string.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(out, utf.length);
+			out.write(utf);
+		}
+	}
+
+	static int intern(Map<String, Integer> pool, List<String> strings, String string) {
+		return pool.computeIfAbsent(string, k -> {
+			strings.add(k);
+			return strings.size() - 1;
+		});
+	}
+
+	private static int[] internAll(Map<String, Integer> pool, List<String> strings, Collection<String> members) {
+		return members.stream().sorted().mapToInt(member -> intern(pool, strings, member)).toArray();
+	}
+
+	private static int[] internAll(Map<String, Integer> pool, List<String> strings, Map<String, String> members) {
+		List<Entry<String, String>> entries = new ArrayList<>(members.entrySet());
+		entries.sort(Entry.comparingByKey());
+
+		int[] out = new int[entries.size() * 2];
+		int i = 0;
+		for (Entry<String, String> entry : entries) {
+			out[i++] = intern(pool, strings, entry.getKey());
+			out[i++] = intern(pool, strings, entry.getValue());
+		}
+		return out;
+	}
+
+	private static void writeMembers(DataOutputStream out, int[] members, int stride) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(members.length * 2 + 4);
+		DataOutputStream data = new DataOutputStream(bytes);
+
+		writeVarInt(data, members.length / stride);
+		for (int member : members) {
+			writeVarInt(data, member);
+		}
+
+		out.writeInt(bytes.size());
+		bytes.writeTo(out);
+	}
+
+	static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte(value & 0x7F | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	/**
+	 * Read a binary blob in the given buffer, starting from its current position
+	 *
+	 * @param buffer The buffer holding the entire blob
+	 *
+	 * @return The blob, with the {@link RemapperTables} it holds if it is new enough to have them
+	 *
+	 * @throws IOException If the buffer doesn't hold a valid blob
+	 */
+	static MappingBlob read(ByteBuffer buffer) throws IOException {
+		int version = checkHeader(buffer);
+
+		String[] strings = new String[readVarInt(buffer)];
+		for (int i = 0; i < strings.length; i++) {
+			strings[i] = readString(buffer);
+		}
+
+		return readBody(buffer, version >= 2, index -> strings[index]);
+	}
+
+	/**
+	 * Read the class table and (optionally) the {@link RemapperTables} of a blob
+	 *
+	 * @param buffer The buffer positioned at the start of the class table
+	 * @param hasTables Whether the {@link RemapperTables} follow the class table
+	 * @param strings The string table the indices refer to
+	 *
+	 * @return The blob, with the tables it holds if it has them
+	 *
+	 * @throws IOException If a class section's contents don't match its length
+	 */
+	static MappingBlob readBody(ByteBuffer buffer, boolean hasTables, IntFunction<String> strings) throws IOException {
+		StringPool pool = new StringPool();
+		int classCount = readVarInt(buffer);
+		Map<String, ClassMapping> mappings = new HashMap<>(classCount * 4 / 3 + 1);
+		for (int i = 0; i < classCount; i++) {
+			ClassMapping mapping = readClass(buffer, strings, pool);
+			mappings.put(mapping.notchName, mapping);
+		}
+
+		if (!hasTables) return new MappingBlob(mappings);
+		RemapperTables tables = readTables(buffer, strings);
+		return new MappingBlob(mappings, () -> tables);
+	}
+
+	/**
+	 * Check the buffer holds a supported blob with a matching checksum
+	 *
+	 * @param buffer The buffer holding the entire blob, left positioned at the start of the string table
+	 *
+	 * @return The version of the blob
+	 *
+	 * @throws IOException If the buffer doesn't hold a valid blob
+	 */
+	static int checkHeader(ByteBuffer buffer) throws IOException {
+		return checkHeader(buffer, true);
+	}
+
+	/**
+	 * Check the buffer holds a supported blob, optionally checking the checksum matches too
+	 *
+	 * @param buffer The buffer holding the entire blob, left positioned at the start of the string table
+	 * @param verify Whether to check the checksum, which means reading through the entire blob
+	 *
+	 * @return The version of the blob
+	 *
+	 * @throws IOException If the buffer doesn't hold a valid blob
+	 */
+	static int checkHeader(ByteBuffer buffer, boolean verify) throws IOException {
+		int start = buffer.position();
+		if (buffer.remaining() < 12) throw new IOException("Truncated mapping blob, only " + buffer.remaining() + " bytes long");
+
+		int magic = buffer.getInt();
+		if (magic != MAGIC) throw new IOException("Unexpected magic in mapping blob: 0x" + Integer.toHexString(magic));
+		int version = buffer.getInt();
+		if (version < 1 || version > VERSION) throw new IOException("Unsupported mapping blob version: " + version);
+		if (!verify) return version;
+
+		int end = buffer.limit() - 4;
+		ByteBuffer contents = buffer.duplicate();
+		contents.position(start).limit(end);
+		CRC32 crc = new CRC32();
+		crc.update(contents);
+		if ((int) crc.getValue() != buffer.getInt(end)) {
+			throw new IOException("Mapping blob checksum mismatch, expected " + Integer.toHexString(buffer.getInt(end)) + " but was " + Long.toHexString(crc.getValue()));
+		}
+
+		return version;
+	}
+
+	/**
+	 * Read a single class section, leaving the buffer positioned at the start of the next
+	 *
+	 * @param buffer The buffer positioned at the start of a class section
+	 * @param strings The string table the section's indices refer to
+	 * @param pool The pool to share the split member names and descriptions through
+	 *
+	 * @return The decoded, frozen, {@link ClassMapping}
+	 *
+	 * @throws IOException If the section's contents don't match its length
+	 */
+	static ClassMapping readClass(ByteBuffer buffer, IntFunction<String> strings, StringPool pool) throws IOException {
+		int end = buffer.getInt() + buffer.position();
+		String notchName = strings.apply(readVarInt(buffer));
+		String mcpName = strings.apply(readVarInt(buffer));
+
+		buffer.getInt(); //Constructor section length
+		String[] constructors = new String[readVarInt(buffer)];
+		for (int i = 0; i < constructors.length; i++) {
+			constructors[i] = strings.apply(readVarInt(buffer));
+		}
+
+		buffer.getInt(); //Method section length
+		Map<String, String> methods = readMembers(buffer, strings, MemberTable.METHOD, pool);
+
+		buffer.getInt(); //Field section length
+		Map<String, String> fields = readMembers(buffer, strings, MemberTable.FIELD, pool);
+
+		if (buffer.position() != end) throw new IOException("Class section for " + notchName + " ended at " + buffer.position() + " rather than " + end);
+		return ClassMapping.frozen(pool.intern(notchName), pool.intern(mcpName), SortedStringSet.freeze(constructors, pool), methods, fields);
+	}
+
+	private static Map<String, String> readMembers(ByteBuffer buffer, IntFunction<String> strings, String separator, StringPool pool) {
+		int count = readVarInt(buffer);
+		String[] keys = new String[count];
+		String[] values = new String[count];
+
+		for (int i = 0; i < count; i++) {
+			keys[i] = strings.apply(readVarInt(buffer));
+			values[i] = strings.apply(readVarInt(buffer));
+		}
+
+		return MemberTable.freeze(separator, keys, values, pool);
+	}
+
+	/**
+	 * Read the {@link RemapperTables}
+	 *
+	 * @param buffer The buffer positioned at the start of the tables, just after the last class section
+	 * @param strings The string table the tables' indices refer to
+	 *
+	 * @return The decoded tables
+	 */
+	static RemapperTables readTables(ByteBuffer buffer, IntFunction<String> strings) {
+		Map<String, String> classes = readTable(buffer, strings);
+		Map<String, String> methods = readTable(buffer, strings);
+		Map<String, String> fields = readTable(buffer, strings);
+		return new RemapperTables(classes, methods, fields);
+	}
+
+	private static Map<String, String> readTable(ByteBuffer buffer, IntFunction<String> strings) {
+		int count = readVarInt(buffer);
+		Map<String, String> table = new HashMap<>(count * 4 / 3 + 1);
+
+		for (int i = 0; i < count; i++) {
+			table.put(strings.apply(readVarInt(buffer)), strings.apply(readVarInt(buffer)));
+		}
+
+		return table;
+	}
+
+	static String readString(ByteBuffer buffer) {
+		int length = readVarInt(buffer);
+
+		String out;
+		if (buffer.hasArray()) {
+			out = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+		} else {
+			byte[] bytes = new byte[length];
+			buffer.duplicate().get(bytes);
+			out = new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		buffer.position(buffer.position() + length);
+		return out;
+	}
+
+	static void skipString(ByteBuffer buffer) {
+		int length = readVarInt(buffer);
+		buffer.position(buffer.position() + length);
+	}
+
+	static int readVarInt(ByteBuffer buffer) {
+		int value = 0;
+
+		for (int shift = 0;; shift += 7) {
+			byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0) return value;
+		}
+	}
+}
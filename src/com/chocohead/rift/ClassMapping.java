@@ -8,6 +8,9 @@ import java.util.Set;
 
 /**
  * The known mappings for a given class
+ * <p>
+ * Mappings are mutable whilst being built, but once part of a {@link MappingBlob} they are frozen into an immutable compact form
+ * which is safe to share between threads.
  * 
  * @author Chocohead
  */
@@ -15,15 +18,65 @@ public class ClassMapping implements Serializable {
 	private static final long serialVersionUID = -1724841536245456196L;
 
 	/** All known constructors mapped as (<code>{@literal <}init{@literal >} (Notch named parameter signatures)V</code> */
-	public final Set<String> constructors = new HashSet<>(); //Designed for Access Transformer use
+	public final Set<String> constructors; //Designed for Access Transformer use
 	/** Notch names to MCP names (or SRG if unmapped) */
-	public final Map<String, String> methods = new HashMap<>();
+	public final Map<String, String> methods;
 	/** Notch names to MCP names (or SRG if unmapped) */
-	public final Map<String, String> fields = new HashMap<>();
+	public final Map<String, String> fields;
 	public final String notchName, mcpName;
+	private final boolean frozen;
 
 	public ClassMapping(String notchName, String mcpName) {
+		this(notchName, mcpName, new HashSet<>(), new HashMap<>(), new HashMap<>(), false);
+	}
+
+	/** Create a mutable copy of the given mapping */
+	public ClassMapping(ClassMapping mapping) {
+		this(mapping.notchName, mapping.mcpName, new HashSet<>(mapping.constructors), new HashMap<>(mapping.methods), new HashMap<>(mapping.fields), false);
+	}
+
+	private ClassMapping(String notchName, String mcpName, Set<String> constructors, Map<String, String> methods, Map<String, String> fields, boolean frozen) {
 		this.notchName = notchName;
 		this.mcpName = mcpName;
+		this.constructors = constructors;
+		this.methods = methods;
+		this.fields = fields;
+		this.frozen = frozen;
+	}
+
+	/** Create a frozen mapping from the given already frozen members */
+	static ClassMapping frozen(String notchName, String mcpName, Set<String> constructors, Map<String, String> methods, Map<String, String> fields) {
+		return new ClassMapping(notchName, mcpName, constructors, methods, fields, true);
+	}
+
+	/** Produce a frozen copy of the mapping, or the mapping itself if it is already frozen */
+	ClassMapping freeze(StringPool pool) {
+		if (frozen) return this;
+
+		return frozen(pool.intern(notchName), pool.intern(mcpName), SortedStringSet.freeze(constructors, pool),
+				MemberTable.freeze(MemberTable.METHOD, methods, pool), MemberTable.freeze(MemberTable.FIELD, fields, pool));
+	}
+
+	/** Whether the mapping has been frozen, and thus can't be modified */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * Get the mapped name of the method with the given Notch name and description
+	 * 
+	 * @return The MCP (or SRG if unmapped) name, or <code>null</code> if the method isn't mapped
+	 */
+	public String getMethod(String name, String desc) {
+		return methods instanceof MemberTable ? ((MemberTable) methods).get(name, desc) : methods.get(name.concat(desc));
+	}
+
+	/**
+	 * Get the mapped name of the field with the given Notch name and description
+	 * 
+	 * @return The MCP (or SRG if unmapped) name, or <code>null</code> if the field isn't mapped
+	 */
+	public String getField(String name, String desc) {
+		return fields instanceof MemberTable ? ((MemberTable) fields).get(name, desc) : fields.get(name + MemberTable.FIELD + desc);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,256 @@
+package com.chocohead.rift;
+
+import java.util.function.Function;
+
+/**
+ * Remaps the class names in type descriptors and generic signatures by scanning them directly, rather than matching them with a regex.
+ * <p>
+ * The class names are given to a mapping function, which returns <code>null</code> (or the name itself) for any it doesn't map.
+ * If no name in the input is mapped, the input itself is returned so nothing is copied. Otherwise the remapped form is built
+ * in a {@link StringBuilder} reused by each thread, so the only allocation is the returned {@link String}.
+ *
+ * @author Chocohead
+ */
+public final class DescriptorRemapper {
+	private static final ThreadLocal<StringBuilder> BUILDERS = ThreadLocal.withInitial(() -> new StringBuilder(128));
+
+	/** A single pass over an input, only copying it once something in it is changed */
+	private static final class Scan {
+		final String in;
+		int pos;
+		private StringBuilder out;
+		private int copied;
+
+		Scan(String in) {
+			this.in = in;
+		}
+
+		char peek() {
+			if (pos >= in.length()) throw new IllegalArgumentException("Unexpected end of " + in);
+			return in.charAt(pos);
+		}
+
+		void expect(char c) {
+			if (peek() != c) throw new IllegalArgumentException("Expected " + c + " at " + pos + " in " + in);
+			pos++;
+		}
+
+		/** Swap the input between the given indices with the given replacement, which will be written out in place of it */
+		void replace(int start, int end, String replacement) {
+			if (out == null) {
+				out = BUILDERS.get();
+				out.setLength(0);
+			}
+
+			out.append(in, copied, start).append(replacement);
+			copied = end;
+		}
+
+		String finish() {
+			if (out == null) return in;
+
+			String result = out.append(in, copied, in.length()).toString();
+			if (out.capacity() > 4096) BUILDERS.remove(); //Don't keep hold of anything unusually large
+			return result;
+		}
+	}
+
+	private final Function<String, String> mapper;
+
+	/**
+	 * Create a remapper for the given class name mapping function
+	 *
+	 * @param mapper A function from internal class names to their mapped names, or <code>null</code> if they aren't mapped
+	 */
+	public DescriptorRemapper(Function<String, String> mapper) {
+		this.mapper = mapper;
+	}
+
+	/** Get the mapped name of the given internal class name, or the name itself if it isn't mapped */
+	public String map(String name) {
+		String mapped = mapper.apply(name);
+		return mapped != null ? mapped : name;
+	}
+
+	/**
+	 * Remap the class names in the given field or method descriptor, such as <code>(I[La;)Lb;</code>
+	 *
+	 * @param desc The descriptor to remap
+	 *
+	 * @return The remapped descriptor, or the given descriptor if nothing in it is mapped
+	 */
+	public String mapDescriptor(String desc) {
+		int start = desc.indexOf('L');
+		if (start < 0) return desc; //Only primitives, nothing to map
+
+		Scan scan = new Scan(desc);
+		do {
+			//Primitives, arrays and brackets are all single characters, so the next L must start a class
+			int end = desc.indexOf(';', start + 1);
+			if (end < 0) throw new IllegalArgumentException("Unterminated class name at " + start + " in " + desc);
+
+			mapName(scan, start + 1, end);
+			start = desc.indexOf('L', end + 1);
+		} while (start >= 0);
+
+		return scan.finish();
+	}
+
+	/**
+	 * Remap the class names in the given generic class, method or field signature, such as <code>{@literal <T:La;>(TT;)Lb<TT;>.c;}</code>
+	 *
+	 * @param signature The signature to remap, or <code>null</code>
+	 *
+	 * @return The remapped signature, or the given signature if nothing in it is mapped
+	 */
+	public String mapSignature(String signature) {
+		if (signature == null || signature.indexOf('L') < 0) return signature;
+
+		Scan scan = new Scan(signature);
+		if (scan.peek() == '<') {
+			scan.pos++;
+
+			do {
+				scan.pos = signature.indexOf(':', scan.pos);
+				if (scan.pos < 0) throw new IllegalArgumentException("Unterminated type parameter in " + signature);
+
+				while (scan.peek() == ':') {
+					scan.pos++;
+					if (scan.peek() != ':' && scan.peek() != '>') typeSignature(scan); //Interface bounds without a class bound have an empty class bound
+				}
+			} while (scan.peek() != '>');
+
+			scan.pos++;
+		}
+
+		if (scan.peek() == '(') {
+			scan.pos++;
+
+			while (scan.peek() != ')') {
+				typeSignature(scan);
+			}
+			scan.pos++;
+
+			typeSignature(scan);
+			while (scan.pos < signature.length()) {
+				scan.expect('^');
+				typeSignature(scan);
+			}
+		} else {
+			//Either a field's type, or a class's superclass followed by its interfaces
+			do {
+				typeSignature(scan);
+			} while (scan.pos < signature.length());
+		}
+
+		return scan.finish();
+	}
+
+	private void mapName(Scan scan, int start, int end) {
+		String name = scan.in.substring(start, end);
+		String mapped = mapper.apply(name);
+		if (mapped != null && !mapped.equals(name)) scan.replace(start, end, mapped);
+	}
+
+	private void typeSignature(Scan scan) {
+		char type = scan.peek();
+		switch (type) {
+		case 'Z':
+		case 'C':
+		case 'B':
+		case 'S':
+		case 'I':
+		case 'F':
+		case 'J':
+		case 'D':
+		case 'V':
+			scan.pos++;
+			break;
+
+		case '[':
+			scan.pos++;
+			typeSignature(scan);
+			break;
+
+		case 'T': {
+			int end = scan.in.indexOf(';', scan.pos);
+			if (end < 0) throw new IllegalArgumentException("Unterminated type variable at " + scan.pos + " in " + scan.in);
+			scan.pos = end + 1;
+			break;
+		}
+
+		case 'L':
+			classSignature(scan);
+			break;
+
+		default:
+			throw new IllegalArgumentException("Unexpected type " + type + " at " + scan.pos + " in " + scan.in);
+		}
+	}
+
+	private void classSignature(Scan scan) {
+		scan.pos++;
+		int start = scan.pos;
+		int end = endOfName(scan);
+
+		String name = scan.in.substring(start, end);
+		String mapped = map(name);
+		if (!mapped.equals(name)) scan.replace(start, end, mapped);
+		typeArguments(scan);
+
+		while (scan.peek() == '.') {
+			//Inner classes are named relative to their outer class, so have to be mapped as the whole name then cut back down
+			start = ++scan.pos;
+			end = endOfName(scan);
+
+			String outerMapped = mapped;
+			name = name + '$' + scan.in.substring(start, end);
+			mapped = map(name);
+
+			String mappedOuter = outerMapped + '$';
+			String inner = mapped.startsWith(mappedOuter) ? mapped.substring(mappedOuter.length()) : mapped.substring(mapped.lastIndexOf('$') + 1);
+			if (inner.length() != end - start || !scan.in.startsWith(inner, start)) scan.replace(start, end, inner);
+			typeArguments(scan);
+		}
+
+		scan.expect(';');
+	}
+
+	private static int endOfName(Scan scan) {
+		while (true) {
+			switch (scan.peek()) {
+			case '<':
+			case '.':
+			case ';':
+				return scan.pos;
+
+			default:
+				scan.pos++;
+			}
+		}
+	}
+
+	private void typeArguments(Scan scan) {
+		if (scan.peek() != '<') return;
+		scan.pos++;
+
+		do {
+			switch (scan.peek()) {
+			case '*':
+				scan.pos++;
+				break;
+
+			case '+':
+			case '-':
+				scan.pos++;
+				typeSignature(scan); //The bounded type itself
+				break;
+
+			default:
+				typeSignature(scan);
+			}
+		} while (scan.peek() != '>');
+
+		scan.pos++;
+	}
+}
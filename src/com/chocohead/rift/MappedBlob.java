@@ -0,0 +1,334 @@
+package com.chocohead.rift;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
+
+/**
+ * A binary {@link MappingBlob} which is memory mapped rather than read in, only decoding a {@link ClassMapping} the first time it is asked for.
+ * The {@link RemapperTables} are likewise only decoded once they are needed.
+ * <p>
+ * Blobs from version 3 carry an offset index, so opening one without checking its checksum only reads the header and the end of the file.
+ * Classes are then found by binary searching the sorted class sections in place, only decoding the names the search passes. Older blobs
+ * have to be read through once when opened to find where everything is, as does checking the checksum of any blob.
+ *
+ * @author Chocohead
+ */
+final class MappedBlob {
+	private final ByteBuffer buffer;
+	/** The offset of each string, then of each class section in Notch name order, then the class indices in MCP name order */
+	private final IntBuffer offsets;
+	private final int stringCount, classCount;
+	private final AtomicReferenceArray<String> strings;
+	private final AtomicReferenceArray<ClassMapping> classes;
+	private final StringPool pool = new StringPool();
+	/** The position of the {@link RemapperTables}, or <code>-1</code> if the blob is too old to have them */
+	private final int tablesOffset;
+
+	private MappedBlob(ByteBuffer buffer, boolean verify) throws IOException {
+		this.buffer = buffer;
+		int version = BlobFormat.checkHeader(buffer, verify);
+		stringCount = BlobFormat.readVarInt(buffer);
+		strings = new AtomicReferenceArray<>(stringCount);
+
+		if (version >= 3) {
+			int end = buffer.limit() - 12;
+			if (end < buffer.position()) throw new IOException("Truncated mapping blob, only " + buffer.limit() + " bytes long");
+			tablesOffset = buffer.getInt(end);
+			int indexOffset = buffer.getInt(end + 4);
+
+			int entries = (end - indexOffset) / 4 - stringCount;
+			if (indexOffset < buffer.position() || tablesOffset > indexOffset || (end - indexOffset) % 4 != 0 || entries < 0 || entries % 2 != 0) {
+				throw new IOException("Invalid offset index in mapping blob at " + indexOffset);
+			}
+			classCount = entries / 2;
+
+			ByteBuffer slice = buffer.duplicate();
+			slice.position(indexOffset).limit(end);
+			offsets = slice.slice().asIntBuffer();
+		} else {
+			int[] table = new int[stringCount];
+			for (int i = 0; i < stringCount; i++) {
+				table[i] = buffer.position();
+				BlobFormat.skipString(buffer);
+			}
+
+			classCount = BlobFormat.readVarInt(buffer);
+			table = Arrays.copyOf(table, stringCount + classCount * 2);
+			offsets = IntBuffer.wrap(table);
+
+			for (int i = 0; i < classCount; i++) {
+				int offset = table[stringCount + i] = buffer.position();
+				int end = buffer.getInt() + buffer.position();
+				if (end > buffer.limit() - 4) throw new IOException("Class section " + i + " at " + offset + " overruns the blob");
+				buffer.position(end);
+			}
+			tablesOffset = version >= 2 ? buffer.position() : -1;
+
+			//Without an index the MCP order has to be found by decoding every class's MCP name
+			int[] byMcp = IntStream.range(0, classCount).boxed().sorted((a, b) -> mcpName(a).compareTo(mcpName(b))).mapToInt(Integer::intValue).toArray();
+			System.arraycopy(byMcp, 0, table, stringCount + classCount, classCount);
+		}
+
+		classes = new AtomicReferenceArray<>(classCount);
+	}
+
+	/**
+	 * Memory map the given binary blob
+	 *
+	 * @param file The location of the blob
+	 * @param verify Whether to check the blob's checksum, which means reading through all of it
+	 *
+	 * @return A {@link MappingBlob} whose {@link MappingBlob#mappings mappings} and {@link MappingBlob#nameBridge nameBridge} are read only views over the mapped file
+	 *
+	 * @throws IOException If there is an error mapping the file or it doesn't hold a valid blob
+	 */
+	static MappingBlob map(Path file, boolean verify) throws IOException {
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		MappedBlob blob = new MappedBlob(buffer, verify);
+		return new MappingBlob(blob.new Mappings(), blob.new NameBridge(), blob.tablesOffset >= 0 ? blob::readTables : null);
+	}
+
+	private RemapperTables readTables() {
+		ByteBuffer buffer = this.buffer.duplicate();
+		buffer.position(tablesOffset);
+		return BlobFormat.readTables(buffer, this::getString);
+	}
+
+	private String getString(int index) {
+		String string = strings.get(index);
+
+		if (string == null) {
+			ByteBuffer buffer = this.buffer.duplicate();
+			buffer.position(offsets.get(index));
+			//Two threads racing here will decode equal strings, so it doesn't matter which wins
+			strings.lazySet(index, string = BlobFormat.readString(buffer));
+		}
+
+		return string;
+	}
+
+	/** The Notch name of the class with the given index */
+	private String notchName(int index) {
+		ByteBuffer buffer = this.buffer.duplicate();
+		buffer.position(classOffset(index) + 4);
+		return getString(BlobFormat.readVarInt(buffer));
+	}
+
+	/** The MCP name of the class with the given index */
+	private String mcpName(int index) {
+		ByteBuffer buffer = this.buffer.duplicate();
+		buffer.position(classOffset(index) + 4);
+		BlobFormat.readVarInt(buffer);
+		return getString(BlobFormat.readVarInt(buffer));
+	}
+
+	private int classOffset(int index) {
+		return offsets.get(stringCount + index);
+	}
+
+	/** Find the index of the class with the given Notch name, or <code>-1</code> if there isn't one */
+	private int findNotch(Object name) {
+		if (!(name instanceof String)) return -1;
+		int low = 0, high = classCount - 1;
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int comparison = notchName(middle).compareTo((String) name);
+
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+
+		return -1;
+	}
+
+	/** Find the index of the class with the given MCP name, or <code>-1</code> if there isn't one */
+	private int findMcp(Object name) {
+		if (!(name instanceof String)) return -1;
+		int low = 0, high = classCount - 1;
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int clazz = offsets.get(stringCount + classCount + middle);
+			int comparison = mcpName(clazz).compareTo((String) name);
+
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return clazz;
+			}
+		}
+
+		return -1;
+	}
+
+	private ClassMapping getMapping(int index) {
+		ClassMapping mapping = classes.get(index);
+
+		if (mapping == null) {
+			ByteBuffer buffer = this.buffer.duplicate();
+			buffer.position(classOffset(index));
+
+			try {
+				mapping = BlobFormat.readClass(buffer, this::getString, pool);
+			} catch (IOException e) {
+				throw new IllegalStateException("Error decoding mapping for " + notchName(index) + " (" + mcpName(index) + ')', e);
+			}
+
+			if (!classes.compareAndSet(index, null, mapping)) {
+				mapping = classes.get(index);
+			}
+		}
+
+		return mapping;
+	}
+
+	/** A read only iterator over each class in the blob */
+	private abstract class ClassIterator<T> implements Iterator<T> {
+		private int next;
+
+		@Override
+		public boolean hasNext() {
+			return next < classCount;
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			return get(next++);
+		}
+
+		protected abstract T get(int index);
+	}
+
+	/** The Notch name to {@link ClassMapping} view of the blob */
+	private class Mappings extends AbstractMap<String, ClassMapping> {
+		private final Set<Entry<String, ClassMapping>> entries = new AbstractSet<Entry<String, ClassMapping>>() {
+			@Override
+			public Iterator<Entry<String, ClassMapping>> iterator() {
+				return new ClassIterator<Entry<String, ClassMapping>>() {
+					@Override
+					protected Entry<String, ClassMapping> get(int index) {
+						return new SimpleImmutableEntry<>(notchName(index), getMapping(index));
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return classCount;
+			}
+		};
+
+		@Override
+		public int size() {
+			return classCount;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return findNotch(key) >= 0;
+		}
+
+		@Override
+		public ClassMapping get(Object key) {
+			int index = findNotch(key);
+			return index >= 0 ? getMapping(index) : null;
+		}
+
+		@Override
+		public Set<String> keySet() {
+			return new AbstractSet<String>() {
+				@Override
+				public Iterator<String> iterator() {
+					return new ClassIterator<String>() {
+						@Override
+						protected String get(int index) {
+							return notchName(index);
+						}
+					};
+				}
+
+				@Override
+				public boolean contains(Object o) {
+					return findNotch(o) >= 0;
+				}
+
+				@Override
+				public int size() {
+					return classCount;
+				}
+			};
+		}
+
+		@Override
+		public Set<Entry<String, ClassMapping>> entrySet() {
+			return entries;
+		}
+	}
+
+	/** The MCP name to Notch name view of the blob, which never needs to decode a {@link ClassMapping} */
+	private class NameBridge extends AbstractMap<String, String> {
+		private final Set<Entry<String, String>> entries = new AbstractSet<Entry<String, String>>() {
+			@Override
+			public Iterator<Entry<String, String>> iterator() {
+				return new ClassIterator<Entry<String, String>>() {
+					@Override
+					protected Entry<String, String> get(int index) {
+						return new SimpleImmutableEntry<>(mcpName(index), notchName(index));
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return classCount;
+			}
+		};
+
+		@Override
+		public int size() {
+			return classCount;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return findMcp(key) >= 0;
+		}
+
+		@Override
+		public String get(Object key) {
+			int index = findMcp(key);
+			return index >= 0 ? notchName(index) : null;
+		}
+
+		@Override
+		public Set<Entry<String, String>> entrySet() {
+			return entries;
+		}
+	}
+}
@@ -1,19 +1,24 @@
 package com.chocohead.rift;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
- * A {@link Serializable} holder for Notch names to {@link ClassMapping} and SRG to Notch maps
+ * A {@link Serializable} holder for Notch names to {@link ClassMapping} and SRG to Notch maps,
+ * along with the {@link RemapperTables} flattened from them in either direction
  * 
  * @author Chocohead
  */
@@ -24,27 +29,138 @@ public class MappingBlob implements Serializable {
 	public final Map<String, ClassMapping> mappings;
 	/** A map of SRG names to Notch names, designed for allowing SRG -> {@link ClassMapping} via {@link #mappings} */
 	public final Map<String, String> nameBridge;
+	/** Where the {@link RemapperTables} come from, <code>null</code> to flatten them from {@link #mappings} */
+	private final transient Supplier<RemapperTables> tableSource;
+	private transient volatile RemapperTables tables, reverseTables;
 
+	/** Create a blob from the given mappings, freezing any which aren't already into a form sharing strings across the whole blob */
 	public MappingBlob(Map<String, ClassMapping> mappings) {
-		this.mappings = Collections.unmodifiableMap(mappings);
-		nameBridge = Collections.unmodifiableMap(mappings.entrySet().parallelStream().collect(Collectors.toMap(mapping -> mapping.getValue().mcpName, Entry::getKey)));
+		this(mappings, (Supplier<RemapperTables>) null);
 	}
 
-	/** Serialise the instance to the given {@link File} */
+	/** Create a blob from the given mappings, with the {@link RemapperTables} for them from the given source */
+	MappingBlob(Map<String, ClassMapping> mappings, Supplier<RemapperTables> tableSource) {
+		StringPool pool = new StringPool();
+		this.mappings = Collections.unmodifiableMap(mappings.entrySet().parallelStream().collect(Collectors.toMap(mapping -> pool.intern(mapping.getKey()), mapping -> mapping.getValue().freeze(pool))));
+		nameBridge = Collections.unmodifiableMap(this.mappings.entrySet().parallelStream().collect(Collectors.toMap(mapping -> mapping.getValue().mcpName, Entry::getKey)));
+		this.tableSource = tableSource;
+	}
+
+	/** Create a blob from already read only {@link #mappings} and {@link #nameBridge} views, with the {@link RemapperTables} for them from the given source */
+	MappingBlob(Map<String, ClassMapping> mappings, Map<String, String> nameBridge, Supplier<RemapperTables> tableSource) {
+		this.mappings = mappings;
+		this.nameBridge = nameBridge;
+		this.tableSource = tableSource;
+	}
+
+	/**
+	 * Get the mappings flattened into owner qualified tables ready to be given to a remapper.
+	 * Blobs read from a file have the tables stored in them, otherwise they are built on first use and kept.
+	 */
+	public RemapperTables getRemapperTables() {
+		RemapperTables tables = this.tables;
+
+		if (tables == null) {
+			synchronized (this) {
+				tables = this.tables;
+
+				if (tables == null) {
+					this.tables = tables = tableSource != null ? tableSource.get() : RemapperTables.build(mappings.values());
+				}
+			}
+		}
+
+		return tables;
+	}
+
+	/**
+	 * Get the mappings flattened into tables going from MCP names and descriptors back to Notch names, for reobfuscating.
+	 * These are built in parallel on first use and kept for as long as the blob is.
+	 */
+	public RemapperTables getReverseRemapperTables() {
+		RemapperTables tables = reverseTables;
+
+		if (tables == null) {
+			synchronized (this) {
+				tables = reverseTables;
+
+				if (tables == null) {
+					reverseTables = tables = RemapperTables.reverse(mappings.values(), getDescriptorRemapper());
+				}
+			}
+		}
+
+		return tables;
+	}
+
+	/** Get a remapper for descriptors and signatures from Notch class names to MCP class names */
+	public DescriptorRemapper getDescriptorRemapper() {
+		return new DescriptorRemapper(name -> {
+			ClassMapping mapping = mappings.get(name);
+			return mapping != null ? mapping.mcpName : null;
+		});
+	}
+
+	/** Serialise the instance to the given {@link File} in the binary blob format */
 	public void write(File out) {
-		try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(out))) {
-			oos.writeObject(this);
+		try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(out))) {
+			BlobFormat.write(mappings, getRemapperTables(), stream);
 		} catch (IOException e) {
 			throw new RuntimeException("Error serialising mapping blob", e);
 		}
 	}
 
-	/** Deserialise the instance from the given {@link File} */
+	/** Deserialise the instance from the given {@link File}, either in the binary blob format or an older Java serialised one */
 	public static MappingBlob read(File file) {
-		try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-			return (MappingBlob) ois.readObject();
+		try {
+			byte[] contents = Files.readAllBytes(file.toPath());
+			if (!BlobFormat.isBinary(contents)) return readLegacy(file);
+
+			return BlobFormat.read(ByteBuffer.wrap(contents));
 		} catch (IOException e) {
 			throw new RuntimeException("Error deserialising mapping blob", e);
+		}
+	}
+
+	/**
+	 * Memory map the given {@link File} rather than reading it in, only decoding each {@link ClassMapping} when it is first asked for.
+	 * Falls back to {@link #read(File)} if the file is from before the binary blob format.
+	 * <p>
+	 * The blob's checksum is checked, which reads through the whole file. Use {@link #map(File, boolean)} to skip that.
+	 */
+	public static MappingBlob map(File file) {
+		return map(file, true);
+	}
+
+	/**
+	 * Memory map the given {@link File} rather than reading it in, only decoding each {@link ClassMapping} when it is first asked for.
+	 * Falls back to {@link #read(File)} if the file is from before the binary blob format.
+	 * <p>
+	 * Without checking the checksum, mapping a current binary blob only reads its header and offset index, so takes the same time
+	 * however large the blob is. Blobs from before the offset index are read through once either way.
+	 *
+	 * @param file The location of the blob
+	 * @param verify Whether to check the blob's checksum, which means reading through the whole file
+	 *
+	 * @return The mapped blob
+	 */
+	public static MappingBlob map(File file, boolean verify) {
+		try {
+			byte[] start = new byte[4];
+			try (FileInputStream in = new FileInputStream(file)) {
+				if (in.read(start) != start.length || !BlobFormat.isBinary(start)) return readLegacy(file);
+			}
+
+			return MappedBlob.map(file.toPath(), verify);
+		} catch (IOException e) {
+			throw new RuntimeException("Error mapping mapping blob", e);
+		}
+	}
+
+	/** Deserialise the instance from the given {@link File} using Java serialisation, as blobs used to be written */
+	private static MappingBlob readLegacy(File file) throws IOException {
+		try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
+			return new MappingBlob(((MappingBlob) ois.readObject()).mappings); //Freeze the mappings as they would be from the binary format
 		} catch (ClassNotFoundException e) {
 			throw new IllegalStateException("Impossible?", e);
 		}
@@ -0,0 +1,412 @@
+package com.chocohead.rift;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * Sorted indexes over every class, method, field and constructor in a {@link MappingBlob}, for finding them by exact name, prefix or wildcard
+ * without going through every {@link ClassMapping}.
+ * <p>
+ * Each kind of {@link Match} is sorted both by its Notch name and by its mapped name, so exact and prefix lookups are a binary search for
+ * the start of the range followed by a walk through it. Wildcard patterns use the range of whatever comes before the first wildcard,
+ * so a pattern starting with one has to check every name of its kind.
+ * <p>
+ * Mapped names are the MCP names the blob holds, which are only SRG names for members without an MCP name. Once MCP names are mushed in
+ * the SRG names of other members aren't kept in the blob at all, so can't be searched for. Classes have no separate SRG names.
+ * <p>
+ * The indexes can be written out next to the blob they were built from, laid out as:
+ * <ul>
+ * <li>A header of {@link #MAGIC}, the format {@link #VERSION} and the checksum of the binary blob the index is for</li>
+ * <li>A string table of every name, description and owner used</li>
+ * <li>Each match, as its kind then the string table indices of its owner, mapped owner, name, description and mapped name</li>
+ * <li>The order of the matches of each kind by Notch name, then by mapped name</li>
+ * <li>A trailing {@link CRC32} of everything before it</li>
+ * </ul>
+ *
+ * @author Chocohead
+ */
+public final class MappingIndex {
+	/** The first bytes of every index, <code>STNI</code> */
+	static final int MAGIC = 0x53544E49;
+	/** The current version of the format */
+	static final int VERSION = 1;
+
+	public enum Kind {
+		/** Classes, by their own names */
+		CLASS,
+		/** Methods, by their names without descriptions */
+		METHOD,
+		/** Fields, by their names without descriptions */
+		FIELD,
+		/** Constructors, by the name of the class they're for */
+		CONSTRUCTOR;
+	}
+
+	/** Which names to search through */
+	public enum Names {
+		NOTCH, MAPPED;
+	}
+
+	/** A single class or member found in the index */
+	public static final class Match {
+		public final Kind kind;
+		/** The Notch and mapped name of the class a member or constructor is in, or <code>null</code> for a class */
+		public final String owner, mappedOwner;
+		/** The Notch name of the class or member, or <code>&lt;init&gt;</code> for constructors */
+		public final String name;
+		/** The Notch description of the member, or <code>null</code> for a class */
+		public final String desc;
+		/** The MCP (or SRG if unmapped) name of the class or member, or <code>&lt;init&gt;</code> for constructors */
+		public final String mappedName;
+
+		Match(Kind kind, String owner, String mappedOwner, String name, String desc, String mappedName) {
+			this.kind = kind;
+			this.owner = owner;
+			this.mappedOwner = mappedOwner;
+			this.name = name;
+			this.desc = desc;
+			this.mappedName = mappedName;
+		}
+
+		/** The name the match is indexed under by the given names */
+		String key(Names names) {
+			switch (kind) {
+			case CONSTRUCTOR:
+				return names == Names.NOTCH ? owner : mappedOwner;
+
+			default:
+				return names == Names.NOTCH ? name : mappedName;
+			}
+		}
+
+		@Override
+		public String toString() {
+			switch (kind) {
+			case CLASS:
+				return name + " -> " + mappedName;
+
+			case FIELD:
+				return owner + '/' + name + ' ' + desc + " -> " + mappedOwner + '/' + mappedName;
+
+			default:
+				return owner + '/' + name + desc + " -> " + mappedOwner + '/' + mappedName;
+			}
+		}
+	}
+
+	private final Match[] matches;
+	/** The indices of the matches of each kind sorted by each kind of name, as [kind][names] */
+	private final int[][][] orders;
+
+	private MappingIndex(Match[] matches, int[][][] orders) {
+		this.matches = matches;
+		this.orders = orders;
+	}
+
+	/** Build the indexes for the given blob */
+	public static MappingIndex build(MappingBlob blob) {
+		List<Match> matches = new ArrayList<>();
+
+		for (ClassMapping mapping : new TreeMap<>(blob.mappings).values()) {
+			matches.add(new Match(Kind.CLASS, null, null, mapping.notchName, null, mapping.mcpName));
+
+			for (String constructor : mapping.constructors) {
+				//Constructors are written as <init> (desc)V
+				matches.add(new Match(Kind.CONSTRUCTOR, mapping.notchName, mapping.mcpName, "<init>", constructor.substring(constructor.indexOf('(')), "<init>"));
+			}
+
+			MemberTable.forEach(MemberTable.METHOD, mapping.methods, (name, desc, value) -> {
+				matches.add(new Match(Kind.METHOD, mapping.notchName, mapping.mcpName, name, desc, value));
+			});
+
+			MemberTable.forEach(MemberTable.FIELD, mapping.fields, (name, desc, value) -> {
+				matches.add(new Match(Kind.FIELD, mapping.notchName, mapping.mcpName, name, desc, value));
+			});
+		}
+
+		Match[] all = matches.toArray(new Match[0]);
+		int[][][] orders = new int[Kind.values().length][Names.values().length][];
+		for (Kind kind : Kind.values()) {
+			Integer[] ofKind = IntStream.range(0, all.length).filter(i -> all[i].kind == kind).boxed().toArray(Integer[]::new);
+
+			for (Names names : Names.values()) {
+				String[] keys = new String[all.length];
+				for (int index : ofKind) {
+					keys[index] = all[index].key(names);
+				}
+
+				//The sort is stable, so matches with the same name stay in the order the blob's classes sort in
+				Integer[] order = ofKind.clone();
+				Arrays.sort(order, Comparator.comparing(index -> keys[index]));
+				orders[kind.ordinal()][names.ordinal()] = Arrays.stream(order).mapToInt(Integer::intValue).toArray();
+			}
+		}
+
+		return new MappingIndex(all, orders);
+	}
+
+	/**
+	 * Get the indexes for the given blob file, from the index file next to it if it is up to date, otherwise building them and writing one
+	 *
+	 * @param blob A binary blob file
+	 *
+	 * @return The indexes for the blob
+	 */
+	public static MappingIndex forBlob(File blob) {
+		File indexFile = new File(blob.getPath() + ".index");
+
+		try {
+			int checksum = blobChecksum(blob);
+
+			if (indexFile.isFile()) {
+				MappingIndex index = read(indexFile, checksum);
+				if (index != null) return index;
+			}
+
+			MappingIndex index = build(MappingBlob.map(blob));
+			index.write(indexFile, checksum);
+			return index;
+		} catch (IOException e) {
+			throw new RuntimeException("Error indexing mapping blob", e);
+		}
+	}
+
+	/** The checksum a binary blob ends with */
+	private static int blobChecksum(File blob) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(blob, "r")) {
+			byte[] start = new byte[4];
+			file.readFully(start);
+			if (!BlobFormat.isBinary(start)) throw new IOException("Only binary blobs can be indexed: " + blob);
+
+			file.seek(file.length() - 4);
+			return file.readInt();
+		}
+	}
+
+	/** Write the index out for the binary blob with the given checksum */
+	private void write(File to, int checksum) throws IOException {
+		Map<String, Integer> pool = new HashMap<>();
+		List<String> strings = new ArrayList<>();
+		int[][] indices = new int[matches.length][];
+		for (int i = 0; i < matches.length; i++) {
+			Match match = matches[i];
+			indices[i] = new int[] {intern(pool, strings, match.owner), intern(pool, strings, match.mappedOwner),
+					intern(pool, strings, match.name), intern(pool, strings, match.desc), intern(pool, strings, match.mappedName)};
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+		DataOutputStream data = new DataOutputStream(bytes);
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		data.writeInt(checksum);
+		BlobFormat.writeStrings(data, strings);
+
+		BlobFormat.writeVarInt(data, matches.length);
+		for (int i = 0; i < matches.length; i++) {
+			data.writeByte(matches[i].kind.ordinal());
+			for (int string : indices[i]) {
+				BlobFormat.writeVarInt(data, string);
+			}
+		}
+
+		for (int[][] kind : orders) {
+			for (int[] order : kind) {
+				BlobFormat.writeVarInt(data, order.length);
+				for (int index : order) {
+					BlobFormat.writeVarInt(data, index);
+				}
+			}
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(bytes.toByteArray(), 0, bytes.size());
+		data.writeInt((int) crc.getValue());
+
+		//Written to the side first so nothing reading the index can see it half written
+		Path temp = Files.createTempFile(to.getAbsoluteFile().toPath().getParent(), to.getName(), ".tmp");
+		try {
+			Files.write(temp, bytes.toByteArray());
+			Files.move(temp, to.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/** Intern the given string, which can be <code>null</code> as index 0 */
+	private static int intern(Map<String, Integer> pool, List<String> strings, String string) {
+		return string != null ? BlobFormat.intern(pool, strings, string) + 1 : 0;
+	}
+
+	/** Read the index from the given file, or <code>null</code> if it isn't for the binary blob with the given checksum or is damaged */
+	private static MappingIndex read(File from, int checksum) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(from.toPath()));
+		if (buffer.remaining() < 16 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != checksum) return null;
+
+		int end = buffer.limit() - 4;
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, end);
+		if ((int) crc.getValue() != buffer.getInt(end)) return null;
+
+		StringPool pool = new StringPool();
+		String[] strings = new String[BlobFormat.readVarInt(buffer) + 1];
+		for (int i = 1; i < strings.length; i++) {
+			strings[i] = pool.intern(BlobFormat.readString(buffer));
+		}
+
+		Kind[] kinds = Kind.values();
+		Match[] matches = new Match[BlobFormat.readVarInt(buffer)];
+		for (int i = 0; i < matches.length; i++) {
+			Kind kind = kinds[buffer.get()];
+			matches[i] = new Match(kind, strings[BlobFormat.readVarInt(buffer)], strings[BlobFormat.readVarInt(buffer)],
+					strings[BlobFormat.readVarInt(buffer)], strings[BlobFormat.readVarInt(buffer)], strings[BlobFormat.readVarInt(buffer)]);
+		}
+
+		int[][][] orders = new int[kinds.length][Names.values().length][];
+		for (int[][] kind : orders) {
+			for (int i = 0; i < kind.length; i++) {
+				int[] order = kind[i] = new int[BlobFormat.readVarInt(buffer)];
+
+				for (int j = 0; j < order.length; j++) {
+					order[j] = BlobFormat.readVarInt(buffer);
+				}
+			}
+		}
+
+		if (buffer.position() != end) throw new IOException("Mapping index ended at " + buffer.position() + " rather than " + end);
+		return new MappingIndex(matches, orders);
+	}
+
+	/** Find every match of the given kind whose name is exactly the given name */
+	public List<Match> findExact(Kind kind, Names names, String name) {
+		int[] order = orders[kind.ordinal()][names.ordinal()];
+		List<Match> out = new ArrayList<>();
+
+		for (int i = lowerBound(order, names, name); i < order.length; i++) {
+			Match match = matches[order[i]];
+			if (!match.key(names).equals(name)) break;
+			out.add(match);
+		}
+
+		return out;
+	}
+
+	/** Find every match of the given kind whose name starts with the given prefix */
+	public List<Match> findPrefix(Kind kind, Names names, String prefix) {
+		int[] order = orders[kind.ordinal()][names.ordinal()];
+		List<Match> out = new ArrayList<>();
+
+		for (int i = lowerBound(order, names, prefix); i < order.length; i++) {
+			Match match = matches[order[i]];
+			if (!match.key(names).startsWith(prefix)) break;
+			out.add(match);
+		}
+
+		return out;
+	}
+
+	/**
+	 * Find every match of the given kind whose name matches the given pattern
+	 *
+	 * @param kind The kind of match to find
+	 * @param names Which names to search through
+	 * @param pattern The pattern to match names against, where <code>*</code> matches any number of characters and <code>?</code> any single one
+	 *
+	 * @return Every match whose name matches the pattern, sorted by that name
+	 */
+	public List<Match> find(Kind kind, Names names, String pattern) {
+		int wildcard = 0;
+		while (wildcard < pattern.length() && pattern.charAt(wildcard) != '*' && pattern.charAt(wildcard) != '?') wildcard++;
+		if (wildcard == pattern.length()) return findExact(kind, names, pattern);
+
+		int[] order = orders[kind.ordinal()][names.ordinal()];
+		String prefix = pattern.substring(0, wildcard);
+		List<Match> out = new ArrayList<>();
+
+		for (int i = lowerBound(order, names, prefix); i < order.length; i++) {
+			Match match = matches[order[i]];
+			String key = match.key(names);
+
+			if (!key.startsWith(prefix)) break;
+			if (globMatches(pattern, wildcard, key, wildcard)) out.add(match);
+		}
+
+		return out;
+	}
+
+	/** Get the constructors of the class with the given Notch or mapped name */
+	public List<Match> getConstructors(String className) {
+		List<Match> out = findExact(Kind.CONSTRUCTOR, Names.NOTCH, className);
+		return !out.isEmpty() ? out : findExact(Kind.CONSTRUCTOR, Names.MAPPED, className);
+	}
+
+	/** Get every match of the given kind, sorted by the given names */
+	public List<Match> getAll(Kind kind, Names names) {
+		int[] order = orders[kind.ordinal()][names.ordinal()];
+		Match[] out = new Match[order.length];
+
+		for (int i = 0; i < order.length; i++) {
+			out[i] = matches[order[i]];
+		}
+
+		return Collections.unmodifiableList(Arrays.asList(out));
+	}
+
+	/** Find the first position in the given order whose name isn't before the given name */
+	private int lowerBound(int[] order, Names names, String name) {
+		int low = 0, high = order.length;
+
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+
+			if (matches[order[middle]].key(names).compareTo(name) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+
+		return low;
+	}
+
+	/** Whether the given name from the given position matches the given pattern from the given position */
+	private static boolean globMatches(String pattern, int patternFrom, String name, int nameFrom) {
+		int p = patternFrom, n = nameFrom;
+		int starPattern = -1, starName = -1;
+
+		while (n < name.length()) {
+			if (p < pattern.length() && (pattern.charAt(p) == '?' || pattern.charAt(p) == name.charAt(n))) {
+				p++;
+				n++;
+			} else if (p < pattern.length() && pattern.charAt(p) == '*') {
+				//Try matching nothing first, backing up to match one more character each time what follows doesn't match
+				starPattern = p++;
+				starName = n;
+			} else if (starPattern >= 0) {
+				p = starPattern + 1;
+				n = ++starName;
+			} else {
+				return false;
+			}
+		}
+
+		while (p < pattern.length() && pattern.charAt(p) == '*') p++;
+		return p == pattern.length();
+	}
+}
@@ -0,0 +1,358 @@
+package com.chocohead.rift;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Many {@link MappingBlob}s for different Minecraft and MCP versions kept in a single file, laid out as:
+ * <ul>
+ * <li>A header of {@link #MAGIC} and the format {@link #VERSION}</li>
+ * <li>A string table shared by every version, so a name which doesn't change between versions is only stored once</li>
+ * <li>A directory of each {@link Version}, with the estimated size of it decoded and where its body is</li>
+ * <li>The body of each version, as the class table and {@link RemapperTables} of a binary blob using the shared string table</li>
+ * <li>A trailing {@link CRC32} of everything before it</li>
+ * </ul>
+ * The file is memory mapped, with each version only decoded when it is asked for. Decoded versions are kept in a least recently used cache
+ * which holds at most the given number of bytes, so a long running process can serve many versions without holding them all.
+ * <p>
+ * Whilst the file shares strings between versions, decoded versions don't: each is pooled through its own {@link StringPool}.
+ * This keeps the memory cap honest, as evicting a version frees all of its strings rather than leaving them held by a store-wide pool,
+ * but means the cap counts each resident version's footprint in full even when other resident versions have the same names.
+ *
+ * @author Chocohead
+ */
+public final class MappingStore {
+	/** The first bytes of every store, <code>STNS</code> */
+	static final int MAGIC = 0x53544E53;
+	/** The current version of the format */
+	static final int VERSION = 1;
+
+	/** The pairing of Minecraft and MCP versions a {@link MappingBlob} is for */
+	public static final class Version implements Comparable<Version> {
+		public final String mcVersion, mcpVersion;
+
+		public Version(String mcVersion, String mcpVersion) {
+			this.mcVersion = Objects.requireNonNull(mcVersion, "mcVersion");
+			this.mcpVersion = Objects.requireNonNull(mcpVersion, "mcpVersion");
+		}
+
+		@Override
+		public int compareTo(Version other) {
+			int order = mcVersion.compareTo(other.mcVersion);
+			return order != 0 ? order : mcpVersion.compareTo(other.mcpVersion);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof Version)) return false;
+
+			Version that = (Version) obj;
+			return mcVersion.equals(that.mcVersion) && mcpVersion.equals(that.mcpVersion);
+		}
+
+		@Override
+		public int hashCode() {
+			return mcVersion.hashCode() * 31 + mcpVersion.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return mcVersion + '/' + mcpVersion;
+		}
+	}
+
+	/** Where a version is in the store */
+	private static final class Section {
+		final int offset, length;
+		/** Roughly how many bytes the version takes up once decoded */
+		final long footprint;
+
+		Section(int offset, int length, long footprint) {
+			this.offset = offset;
+			this.length = length;
+			this.footprint = footprint;
+		}
+	}
+
+	private final ByteBuffer buffer;
+	private final int[] stringOffsets;
+	private final Map<Version, Section> versions;
+	private final long memoryCap;
+	/** The decoded versions, from least to most recently used */
+	private final LinkedHashMap<Version, MappingBlob> resident = new LinkedHashMap<>(16, 0.75F, true);
+	private long residentBytes;
+
+	private MappingStore(ByteBuffer buffer, long memoryCap) throws IOException {
+		this.buffer = buffer;
+		this.memoryCap = memoryCap;
+
+		int start = buffer.position();
+		if (buffer.remaining() < 12) throw new IOException("Truncated mapping store, only " + buffer.remaining() + " bytes long");
+
+		int magic = buffer.getInt();
+		if (magic != MAGIC) throw new IOException("Unexpected magic in mapping store: 0x" + Integer.toHexString(magic));
+		int version = buffer.getInt();
+		if (version != VERSION) throw new IOException("Unsupported mapping store version: " + version);
+
+		int end = buffer.limit() - 4;
+		ByteBuffer contents = buffer.duplicate();
+		contents.position(start).limit(end);
+		CRC32 crc = new CRC32();
+		crc.update(contents);
+		if ((int) crc.getValue() != buffer.getInt(end)) {
+			throw new IOException("Mapping store checksum mismatch, expected " + Integer.toHexString(buffer.getInt(end)) + " but was " + Long.toHexString(crc.getValue()));
+		}
+
+		stringOffsets = new int[BlobFormat.readVarInt(buffer)];
+		for (int i = 0; i < stringOffsets.length; i++) {
+			stringOffsets[i] = buffer.position();
+			BlobFormat.skipString(buffer);
+		}
+
+		int versionCount = BlobFormat.readVarInt(buffer);
+		Map<Version, Section> versions = new HashMap<>(versionCount * 4 / 3 + 1);
+		for (int i = 0; i < versionCount; i++) {
+			Version key = new Version(getString(BlobFormat.readVarInt(buffer)), getString(BlobFormat.readVarInt(buffer)));
+			Section section = new Section(buffer.getInt(), buffer.getInt(), buffer.getLong());
+
+			if (section.offset < buffer.position() || section.length < 0 || (long) section.offset + section.length > end) {
+				throw new IOException("Mappings for " + key + " at " + section.offset + " overrun the store");
+			}
+			versions.put(key, section);
+		}
+		this.versions = Collections.unmodifiableMap(versions);
+	}
+
+	/**
+	 * Memory map the given store
+	 *
+	 * @param file The location of the store
+	 * @param memoryCap Roughly how many bytes of decoded versions to keep, summing each version's footprint on its own as they share no strings once decoded.
+	 * The most recently used version is always kept however big it is
+	 *
+	 * @return The store, with no versions decoded yet
+	 */
+	public static MappingStore open(File file, long memoryCap) {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			return new MappingStore(channel.map(MapMode.READ_ONLY, 0, channel.size()), memoryCap);
+		} catch (IOException e) {
+			throw new RuntimeException("Error opening mapping store", e);
+		}
+	}
+
+	/** Every version in the store */
+	public Set<Version> getVersions() {
+		return versions.keySet();
+	}
+
+	public boolean hasVersion(String mcVersion, String mcpVersion) {
+		return versions.containsKey(new Version(mcVersion, mcpVersion));
+	}
+
+	/** Get the mappings for the given Minecraft and MCP versions, or <code>null</code> if the store doesn't have them */
+	public MappingBlob get(String mcVersion, String mcpVersion) {
+		return get(new Version(mcVersion, mcpVersion));
+	}
+
+	/** Get the mappings for the given version, decoding them if they're not already resident, or <code>null</code> if the store doesn't have them */
+	public MappingBlob get(Version version) {
+		Section section = versions.get(version);
+		if (section == null) return null;
+
+		synchronized (resident) {
+			MappingBlob blob = resident.get(version);
+			if (blob != null) return blob;
+		}
+
+		//Decoding can take a while, so other versions can still be got in the mean time
+		MappingBlob blob = decode(version, section);
+
+		synchronized (resident) {
+			MappingBlob existing = resident.get(version);
+			if (existing != null) return existing; //Another thread decoded it first
+
+			resident.put(version, blob);
+			residentBytes += section.footprint;
+
+			for (Iterator<Version> it = resident.keySet().iterator(); residentBytes > memoryCap && resident.size() > 1;) {
+				residentBytes -= versions.get(it.next()).footprint;
+				it.remove();
+			}
+		}
+
+		return blob;
+	}
+
+	/** Roughly how many bytes the currently decoded versions take up */
+	public long getResidentBytes() {
+		synchronized (resident) {
+			return residentBytes;
+		}
+	}
+
+	private MappingBlob decode(Version version, Section section) {
+		ByteBuffer buffer = this.buffer.duplicate();
+		buffer.position(section.offset).limit(section.offset + section.length);
+
+		//Each string is only decoded once per version, but they're not kept around once the version is decoded nor shared with other versions
+		String[] strings = new String[stringOffsets.length];
+		try {
+			MappingBlob blob = BlobFormat.readBody(buffer, true, index -> {
+				String string = strings[index];
+				return string != null ? string : (strings[index] = getString(index));
+			});
+
+			if (buffer.hasRemaining()) throw new IOException("Mappings ended at " + buffer.position() + " rather than " + buffer.limit());
+			return blob;
+		} catch (IOException e) {
+			throw new IllegalStateException("Error decoding mappings for " + version, e);
+		}
+	}
+
+	private String getString(int index) {
+		ByteBuffer buffer = this.buffer.duplicate();
+		buffer.position(stringOffsets[index]);
+		return BlobFormat.readString(buffer);
+	}
+
+	/**
+	 * Write the given versions out as a single store, sharing every string used by more than one version
+	 *
+	 * @param blobs The mappings for each version
+	 * @param out The file to write the store to
+	 */
+	public static void write(Map<Version, MappingBlob> blobs, File out) {
+		try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(out.toPath()))) {
+			write(blobs, stream);
+		} catch (IOException e) {
+			throw new RuntimeException("Error writing mapping store", e);
+		}
+	}
+
+	static void write(Map<Version, MappingBlob> blobs, OutputStream out) throws IOException {
+		Map<Version, MappingBlob> versions = new TreeMap<>(blobs);
+
+		Map<String, Integer> pool = new HashMap<>();
+		List<String> strings = new ArrayList<>();
+		for (Version version : versions.keySet()) {
+			BlobFormat.intern(pool, strings, version.mcVersion);
+			BlobFormat.intern(pool, strings, version.mcpVersion);
+		}
+
+		List<byte[]> bodies = new ArrayList<>(versions.size());
+		for (MappingBlob blob : versions.values()) {
+			bodies.add(BlobFormat.writeBody(blob.mappings, blob.getRemapperTables(), pool, strings));
+		}
+
+		ByteArrayOutputStream header = new ByteArrayOutputStream(1 << 16);
+		DataOutputStream data = new DataOutputStream(header);
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		BlobFormat.writeStrings(data, strings);
+
+		BlobFormat.writeVarInt(data, versions.size());
+		int directoryEntry = 2 * 4 + 8; //The offset, length and footprint after the two names
+		int offset = header.size() + versions.size() * directoryEntry;
+		for (Version version : versions.keySet()) {
+			offset += varIntSize(pool.get(version.mcVersion)) + varIntSize(pool.get(version.mcpVersion));
+		}
+
+		int i = 0;
+		for (Entry<Version, MappingBlob> entry : versions.entrySet()) {
+			Version version = entry.getKey();
+			byte[] body = bodies.get(i++);
+
+			BlobFormat.writeVarInt(data, pool.get(version.mcVersion));
+			BlobFormat.writeVarInt(data, pool.get(version.mcpVersion));
+			data.writeInt(offset);
+			data.writeInt(body.length);
+			data.writeLong(estimateFootprint(entry.getValue()));
+			offset += body.length;
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(header.toByteArray(), 0, header.size());
+		for (byte[] body : bodies) {
+			crc.update(body);
+		}
+
+		header.writeTo(out);
+		for (byte[] body : bodies) {
+			out.write(body);
+		}
+		data = new DataOutputStream(out);
+		data.writeInt((int) crc.getValue());
+		data.flush();
+	}
+
+	private static int varIntSize(int value) {
+		int size = 1;
+
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			size++;
+		}
+
+		return size;
+	}
+
+	/** Estimate how many bytes of heap the given mappings take up once decoded, counting each distinct string once as they are pooled and member names apart from their descriptions as they are frozen */
+	static long estimateFootprint(MappingBlob blob) {
+		Set<String> strings = new HashSet<>();
+		long entries = 0;
+
+		for (ClassMapping mapping : blob.mappings.values()) {
+			strings.add(mapping.notchName);
+			strings.add(mapping.mcpName);
+			strings.addAll(mapping.constructors);
+			MemberTable.forEach(MemberTable.METHOD, mapping.methods, (name, desc, value) -> {
+				strings.add(name);
+				strings.add(desc);
+				strings.add(value);
+			});
+			MemberTable.forEach(MemberTable.FIELD, mapping.fields, (name, desc, value) -> {
+				strings.add(name);
+				strings.add(desc);
+				strings.add(value);
+			});
+			entries += 2 + mapping.constructors.size() + mapping.methods.size() + mapping.fields.size();
+		}
+
+		RemapperTables tables = blob.getRemapperTables();
+		for (Map<String, String> table : Arrays.asList(tables.classes, tables.methods, tables.fields)) {
+			strings.addAll(table.keySet());
+			strings.addAll(table.values());
+			entries += table.size();
+		}
+
+		long bytes = entries * 48; //A hash map entry and its share of the table
+		for (String string : strings) {
+			bytes += 40 + 2L * string.length(); //The string and its backing array
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,273 @@
+package com.chocohead.rift;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An immutable map of member keys to names, stored as (name, description) pairs sorted into parallel arrays rather than as joined keys.
+ * Keys are still presented as the name, separator and description joined, so the table works as a drop in for the {@link ClassMapping} maps,
+ * but {@link #forEach(String, Map, MemberConsumer)} can go through the members without ever joining them.
+ *
+ * @author Chocohead
+ */
+final class MemberTable extends AbstractMap<String, String> implements Serializable {
+	/** Receives a member as its name and description, along with the name it is mapped to */
+	@FunctionalInterface
+	interface MemberConsumer {
+		void accept(String name, String desc, String value);
+	}
+
+	private static final long serialVersionUID = 3914725190473621046L;
+	/** The separators between the name and description of method and field keys respectively */
+	static final String METHOD = "", FIELD = ";;";
+	static final MemberTable EMPTY_METHODS = new MemberTable(METHOD, new String[0], new String[0], new String[0]);
+	static final MemberTable EMPTY_FIELDS = new MemberTable(FIELD, new String[0], new String[0], new String[0]);
+
+	private final String separator;
+	private final String[] names, descs, values;
+	private transient Set<Entry<String, String>> entries;
+
+	private MemberTable(String separator, String[] names, String[] descs, String[] values) {
+		this.separator = separator;
+		this.names = names;
+		this.descs = descs;
+		this.values = values;
+	}
+
+	/**
+	 * Freeze the given joined key map into a table
+	 *
+	 * @param separator Either {@link #METHOD} or {@link #FIELD} depending on the type of member the map holds
+	 * @param members The member map to freeze
+	 * @param pool The pool to share the names, descriptions and values through
+	 *
+	 * @return The frozen table, or an unmodifiable copy if any of the keys can't be split by the separator
+	 */
+	static Map<String, String> freeze(String separator, Map<String, String> members, StringPool pool) {
+		if (members instanceof MemberTable) return members;
+
+		String[] keys = new String[members.size()];
+		String[] values = new String[members.size()];
+		int i = 0;
+		for (Entry<String, String> entry : members.entrySet()) {
+			keys[i] = entry.getKey();
+			values[i++] = entry.getValue();
+		}
+
+		return freeze(separator, keys, values, pool);
+	}
+
+	/**
+	 * Freeze the given joined keys and their values into a table
+	 *
+	 * @param separator Either {@link #METHOD} or {@link #FIELD} depending on the type of member the keys are for
+	 * @param keys The joined member keys
+	 * @param values The value for each key
+	 * @param pool The pool to share the names, descriptions and values through
+	 *
+	 * @return The frozen table, or an unmodifiable map if any of the keys can't be split by the separator
+	 */
+	static Map<String, String> freeze(String separator, String[] keys, String[] values, StringPool pool) {
+		int size = keys.length;
+		if (size == 0) return METHOD.equals(separator) ? EMPTY_METHODS : EMPTY_FIELDS;
+
+		String[][] entries = new String[size][];
+		for (int i = 0; i < size; i++) {
+			String key = keys[i];
+
+			int split = split(separator, key, 0, key.length());
+			if (split < 0) {
+				Map<String, String> copy = new HashMap<>(size * 4 / 3 + 1);
+				for (int j = 0; j < size; j++) {
+					copy.put(pool.intern(keys[j]), pool.intern(values[j]));
+				}
+				return Collections.unmodifiableMap(copy);
+			}
+
+			entries[i] = new String[] {pool.intern(key.substring(0, split)), pool.intern(key.substring(split + separator.length())), pool.intern(values[i])};
+		}
+
+		//Sort as the joined keys would, so the table iterates in the same order as a TreeMap of them
+		Arrays.sort(entries, (a, b) -> compare(separator, a[0], a[1], b[0], 0, b[0].length(), b[1], 0, b[1].length()));
+
+		String[] names = new String[size];
+		String[] descs = new String[size];
+		String[] mapped = new String[size];
+		for (int i = 0; i < size; i++) {
+			names[i] = entries[i][0];
+			descs[i] = entries[i][1];
+			mapped[i] = entries[i][2];
+		}
+
+		return new MemberTable(separator, names, descs, mapped);
+	}
+
+	/** Find where the given separator splits the name from the description in the given key, or <code>-1</code> if it can't */
+	private static int split(String separator, String key, int from, int to) {
+		if (METHOD.equals(separator)) {
+			int split = key.indexOf('(', from);
+			return split < to ? split : -1;
+		} else {
+			int split = key.indexOf(separator, from);
+			return split >= 0 && split + separator.length() <= to ? split : -1;
+		}
+	}
+
+	/**
+	 * Get the mapped name of the member with the given name and description
+	 *
+	 * @return The mapped name, or <code>null</code> if the member isn't mapped
+	 */
+	public String get(String name, String desc) {
+		int index = find(name, 0, name.length(), desc, 0, desc.length());
+		return index >= 0 ? values[index] : null;
+	}
+
+	private int find(Object key) {
+		if (!(key instanceof String)) return -1;
+		String member = (String) key;
+
+		int split = split(separator, member, 0, member.length());
+		if (split < 0) return -1;
+
+		return find(member, 0, split, member, split + separator.length(), member.length());
+	}
+
+	private int find(String name, int nameStart, int nameEnd, String desc, int descStart, int descEnd) {
+		int low = 0, high = names.length - 1;
+
+		while (low <= high) {
+			int middle = low + high >>> 1;
+
+			int compare = compare(separator, names[middle], descs[middle], name, nameStart, nameEnd, desc, descStart, descEnd);
+
+			if (compare < 0) {
+				low = middle + 1;
+			} else if (compare > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Compare a member to one given as regions of other strings, in the order their joined keys would sort in.
+	 * The keys are only joined when one name is a prefix of the other, as then the separator is compared against the rest of the longer name.
+	 */
+	private static int compare(String separator, String name, String desc, String otherName, int nameStart, int nameEnd, String otherDesc, int descStart, int descEnd) {
+		int nameLength = nameEnd - nameStart;
+
+		if (name.length() == nameLength || !otherName.regionMatches(nameStart, name, 0, Math.min(name.length(), nameLength))) {
+			int out = compare(name, otherName, nameStart, nameEnd);
+			return out != 0 ? out : compare(desc, otherDesc, descStart, descEnd);
+		}
+
+		String key = name + separator + desc;
+		return key.compareTo(otherName.substring(nameStart, nameEnd) + separator + otherDesc.substring(descStart, descEnd));
+	}
+
+	/** Compare the given string to a region of another without having to pull out the region, matching {@link String#compareTo(String)} */
+	private static int compare(String string, String other, int start, int end) {
+		int length = end - start;
+		int limit = Math.min(string.length(), length);
+
+		for (int i = 0; i < limit; i++) {
+			char a = string.charAt(i);
+			char b = other.charAt(start + i);
+			if (a != b) return a - b;
+		}
+
+		return string.length() - length;
+	}
+
+	@Override
+	public int size() {
+		return names.length;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return find(key) >= 0;
+	}
+
+	@Override
+	public String get(Object key) {
+		int index = find(key);
+		return index >= 0 ? values[index] : null;
+	}
+
+	@Override
+	public Set<Entry<String, String>> entrySet() {
+		if (entries == null) {
+			entries = new AbstractSet<Entry<String, String>>() {
+				@Override
+				public Iterator<Entry<String, String>> iterator() {
+					return new Iterator<Entry<String, String>>() {
+						private int next;
+
+						@Override
+						public boolean hasNext() {
+							return next < names.length;
+						}
+
+						@Override
+						public Entry<String, String> next() {
+							if (!hasNext()) throw new NoSuchElementException();
+
+							int index = next++;
+							return new SimpleImmutableEntry<>(names[index] + separator + descs[index], values[index]);
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return names.length;
+				}
+			};
+		}
+
+		return entries;
+	}
+
+	/**
+	 * Give each member in the given map to the given consumer, in the order a {@link TreeMap} of the joined keys would give them.
+	 * Tables already hold their members split and sorted, so only other maps need their keys splitting and sorting.
+	 *
+	 * @param separator Either {@link #METHOD} or {@link #FIELD} depending on the type of member the map holds
+	 * @param members The member map to go through
+	 * @param action The consumer to give each member's name, description and value to
+	 *
+	 * @throws IllegalArgumentException If any of the map's keys can't be split by the separator
+	 */
+	static void forEach(String separator, Map<String, String> members, MemberConsumer action) {
+		if (members instanceof MemberTable) {
+			MemberTable table = (MemberTable) members;
+
+			for (int i = 0; i < table.names.length; i++) {
+				action.accept(table.names[i], table.descs[i], table.values[i]);
+			}
+		} else {
+			for (Entry<String, String> entry : new TreeMap<>(members).entrySet()) {
+				String key = entry.getKey();
+
+				int split = split(separator, key, 0, key.length());
+				if (split < 0) throw new IllegalArgumentException("Unable to split member key: " + key);
+
+				action.accept(key.substring(0, split), key.substring(split + separator.length()), entry.getValue());
+			}
+		}
+	}
+}
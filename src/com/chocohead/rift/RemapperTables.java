@@ -0,0 +1,157 @@
+package com.chocohead.rift;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The class, method and field mappings of a {@link MappingBlob} flattened into the owner qualified form remappers expect.
+ * <p>
+ * Methods are keyed as <code>owner/name(desc)</code> and fields as <code>owner/name;;desc</code> by Notch names,
+ * each mapped to <code>mcpOwner/mcpName</code>, so they can be handed to a remapper as they are.
+ * <p>
+ * {@link #reverse(Collection, DescriptorRemapper) Reversed} tables are the other way around, keyed by MCP names and descriptors and mapped to Notch names.
+ *
+ * @author Chocohead
+ */
+public final class RemapperTables {
+	/** Notch class names to MCP class names */
+	public final Map<String, String> classes;
+	/** Notch owner qualified method keys to MCP owner qualified names */
+	public final Map<String, String> methods;
+	/** Notch owner qualified field keys to MCP owner qualified names */
+	public final Map<String, String> fields;
+
+	RemapperTables(Map<String, String> classes, Map<String, String> methods, Map<String, String> fields) {
+		this.classes = Collections.unmodifiableMap(classes);
+		this.methods = Collections.unmodifiableMap(methods);
+		this.fields = Collections.unmodifiableMap(fields);
+	}
+
+	/** Flatten the given mappings into tables */
+	static RemapperTables build(Collection<ClassMapping> mappings) {
+		int methodCount = 0, fieldCount = 0;
+		for (ClassMapping mapping : mappings) {
+			methodCount += mapping.methods.size();
+			fieldCount += mapping.fields.size();
+		}
+
+		Map<String, String> classes = new HashMap<>(mappings.size() * 4 / 3 + 1);
+		Map<String, String> methods = new HashMap<>(methodCount * 4 / 3 + 1);
+		Map<String, String> fields = new HashMap<>(fieldCount * 4 / 3 + 1);
+
+		for (ClassMapping mapping : mappings) {
+			classes.put(mapping.notchName, mapping.mcpName);
+
+			String notchOwner = mapping.notchName + '/';
+			String mcpOwner = mapping.mcpName + '/';
+			for (Entry<String, String> entry : mapping.methods.entrySet()) {
+				methods.put(notchOwner.concat(entry.getKey()), mcpOwner.concat(entry.getValue()));
+			}
+
+			for (Entry<String, String> entry : mapping.fields.entrySet()) {
+				fields.put(notchOwner.concat(entry.getKey()), mcpOwner.concat(entry.getValue()));
+			}
+		}
+
+		return new RemapperTables(classes, methods, fields);
+	}
+
+	/**
+	 * Update the given tables for some of the classes they were flattened from changing, without flattening every class again
+	 *
+	 * @param tables The tables to update, which are left untouched
+	 * @param removed The mappings which have been removed or replaced
+	 * @param added The mappings which have been added or replaced others
+	 *
+	 * @return The tables as {@link #build(Collection)} would produce from the updated mappings
+	 */
+	static RemapperTables update(RemapperTables tables, Collection<ClassMapping> removed, Collection<ClassMapping> added) {
+		Map<String, String> classes = new HashMap<>(tables.classes);
+		Map<String, String> methods = new HashMap<>(tables.methods);
+		Map<String, String> fields = new HashMap<>(tables.fields);
+
+		for (ClassMapping mapping : removed) {
+			classes.remove(mapping.notchName);
+
+			String notchOwner = mapping.notchName + '/';
+			for (String method : mapping.methods.keySet()) {
+				methods.remove(notchOwner.concat(method));
+			}
+
+			for (String field : mapping.fields.keySet()) {
+				fields.remove(notchOwner.concat(field));
+			}
+		}
+
+		for (ClassMapping mapping : added) {
+			classes.put(mapping.notchName, mapping.mcpName);
+
+			String notchOwner = mapping.notchName + '/';
+			String mcpOwner = mapping.mcpName + '/';
+			for (Entry<String, String> entry : mapping.methods.entrySet()) {
+				methods.put(notchOwner.concat(entry.getKey()), mcpOwner.concat(entry.getValue()));
+			}
+
+			for (Entry<String, String> entry : mapping.fields.entrySet()) {
+				fields.put(notchOwner.concat(entry.getKey()), mcpOwner.concat(entry.getValue()));
+			}
+		}
+
+		return new RemapperTables(classes, methods, fields);
+	}
+
+	/**
+	 * Flatten the given mappings into tables from MCP names to Notch names, building the tables for each class in parallel
+	 * <p>
+	 * Should two classes or members reverse to the same MCP name (and descriptor), the one whose Notch name sorts first wins.
+	 * This keeps the tables the same however the classes are ordered or scheduled, rather than whichever happened to get there first.
+	 *
+	 * @param mappings The mappings to reverse
+	 * @param remapper A remapper from Notch descriptors to MCP descriptors
+	 *
+	 * @return The reversed tables
+	 */
+	static RemapperTables reverse(Collection<ClassMapping> mappings, DescriptorRemapper remapper) {
+		int methodCount = 0, fieldCount = 0;
+		for (ClassMapping mapping : mappings) {
+			methodCount += mapping.methods.size();
+			fieldCount += mapping.fields.size();
+		}
+
+		Map<String, String> classes = new ConcurrentHashMap<>(mappings.size() * 4 / 3 + 1);
+		Map<String, String> methods = new ConcurrentHashMap<>(methodCount * 4 / 3 + 1);
+		Map<String, String> fields = new ConcurrentHashMap<>(fieldCount * 4 / 3 + 1);
+
+		mappings.parallelStream().forEach(mapping -> {
+			classes.merge(mapping.mcpName, mapping.notchName, RemapperTables::first);
+
+			String notchOwner = mapping.notchName + '/';
+			String mcpOwner = mapping.mcpName + '/';
+			for (Entry<String, String> entry : mapping.methods.entrySet()) {
+				String key = entry.getKey();
+				int split = key.indexOf('(');
+
+				//Two methods with the same MCP name and descriptor can't both be reversed, so the first by Notch name sticks
+				methods.merge(mcpOwner + entry.getValue() + remapper.mapDescriptor(key.substring(split)), notchOwner.concat(key.substring(0, split)), RemapperTables::first);
+			}
+
+			for (Entry<String, String> entry : mapping.fields.entrySet()) {
+				String key = entry.getKey();
+				int split = key.indexOf(MemberTable.FIELD);
+
+				fields.merge(mcpOwner + entry.getValue() + MemberTable.FIELD + remapper.mapDescriptor(key.substring(split + MemberTable.FIELD.length())), notchOwner.concat(key.substring(0, split)), RemapperTables::first);
+			}
+		});
+
+		return new RemapperTables(classes, methods, fields);
+	}
+
+	/** Pick whichever of the given Notch names sorts first, so colliding reversals resolve the same way whatever order they're merged in */
+	private static String first(String name, String other) {
+		return name.compareTo(other) <= 0 ? name : other;
+	}
+}
@@ -0,0 +1,73 @@
+package com.chocohead.rift;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable set of {@link String}s stored as a single sorted array
+ *
+ * @author Chocohead
+ */
+final class SortedStringSet extends AbstractSet<String> implements Serializable {
+	private static final long serialVersionUID = -5870394471252066329L;
+	static final SortedStringSet EMPTY = new SortedStringSet(new String[0]);
+
+	private final String[] values;
+
+	private SortedStringSet(String[] values) {
+		this.values = values;
+	}
+
+	/** Freeze the given set, sharing its contents through the given pool */
+	static Set<String> freeze(Collection<String> values, StringPool pool) {
+		if (values instanceof SortedStringSet) return (Set<String>) values;
+
+		return freeze(values.toArray(new String[0]), pool);
+	}
+
+	/** Freeze the given values, which must not contain duplicates, sharing them through the given pool */
+	static Set<String> freeze(String[] values, StringPool pool) {
+		if (values.length == 0) return EMPTY;
+
+		String[] out = new String[values.length];
+		for (int i = 0; i < values.length; i++) {
+			out[i] = pool.intern(values[i]);
+		}
+		Arrays.sort(out);
+
+		return new SortedStringSet(out);
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return o instanceof String && Arrays.binarySearch(values, o) >= 0;
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+			private int next;
+
+			@Override
+			public boolean hasNext() {
+				return next < values.length;
+			}
+
+			@Override
+			public String next() {
+				if (!hasNext()) throw new NoSuchElementException();
+				return values[next++];
+			}
+		};
+	}
+
+	@Override
+	public int size() {
+		return values.length;
+	}
+}
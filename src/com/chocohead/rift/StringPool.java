@@ -0,0 +1,19 @@
+package com.chocohead.rift;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A thread safe pool of {@link String}s, so equal names and descriptions share a single instance across a whole {@link MappingBlob}
+ *
+ * @author Chocohead
+ */
+final class StringPool {
+	private final ConcurrentMap<String, String> pool = new ConcurrentHashMap<>();
+
+	/** Get the pooled instance equal to the given string, adding it if there isn't one yet */
+	String intern(String string) {
+		String existing = pool.putIfAbsent(string, string);
+		return existing != null ? existing : string;
+	}
+}
@@ -0,0 +1,61 @@
+package com.chocohead.stunture;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+
+/**
+ * Light weight version of {@link ClassNode} which only visits the superclass, interfaces and field descriptions
+ * 
+ * @author Chocohead
+ */
+class ClassFisher extends ClassVisitor {
+	public String name;
+	public String superName;
+	public List<String> interfaces = Collections.emptyList();
+	/** Field names to descriptions */
+	public final Map<String, String> fields = new HashMap<>();
+
+	public ClassFisher() {
+		super(Opcodes.ASM7);
+	}
+
+	/** Fish out the hierarchy and fields of the given class bytes */
+	public static ClassFisher fish(byte[] bytes) {
+		return fish(bytes, 0, bytes.length);
+	}
+
+	/** Fish out the hierarchy and fields of the class in the given range of bytes */
+	public static ClassFisher fish(byte[] bytes, int offset, int length) {
+		ClassFisher fisher = new ClassFisher();
+		new ClassReader(bytes, offset, length).accept(fisher, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG);
+		return fisher;
+	}
+
+	@Override
+	public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+		this.name = name;
+		this.superName = superName;
+		if (interfaces != null && interfaces.length > 0) this.interfaces = Arrays.asList(interfaces);
+	}
+
+	@Override
+	public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+		fields.put(name, descriptor);
+		return null;
+	}
+
+	@Override
+	public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+		return null;
+	}
+}
@@ -0,0 +1,93 @@
+package com.chocohead.stunture;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Light weight record of a class's hierarchy and member signatures, enough to write a {@link ClasspathIndex#stub(byte[]) stub} of it back out without keeping its bytes
+ *
+ * @author Chocohead
+ */
+class ClassOutline extends ClassVisitor {
+	/** A field or method's access and signature */
+	private static final class Member {
+		final int access;
+		final String name, descriptor;
+
+		Member(int access, String name, String descriptor) {
+			this.access = access;
+			this.name = name;
+			this.descriptor = descriptor;
+		}
+	}
+
+	private int version, access;
+	public String name;
+	public String superName;
+	public String[] interfaces;
+	private final List<Member> fields = new ArrayList<>();
+	private final List<Member> methods = new ArrayList<>();
+
+	public ClassOutline() {
+		super(Opcodes.ASM7);
+	}
+
+	/** Outline the given class bytes */
+	public static ClassOutline outline(byte[] bytes) {
+		ClassOutline outline = new ClassOutline();
+		new ClassReader(bytes).accept(outline, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG);
+		return outline;
+	}
+
+	@Override
+	public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+		this.version = version;
+		this.access = access;
+		this.name = name;
+		this.superName = superName;
+		this.interfaces = interfaces != null ? interfaces : new String[0];
+	}
+
+	@Override
+	public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+		fields.add(new Member(access, name, descriptor));
+		return null;
+	}
+
+	@Override
+	public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+		methods.add(new Member(access, name, descriptor));
+		return null;
+	}
+
+	/** The interfaces of the class, followed by its superclass, in the same form as {@link PassthroughFilter#supertypes(byte[])} */
+	public String[] supertypes() {
+		String[] types = Arrays.copyOf(interfaces, interfaces.length + 1);
+		types[interfaces.length] = superName;
+		return types;
+	}
+
+	/** Write the class back out without any code, as {@link ClasspathIndex#stub(byte[])} would have from its original bytes */
+	public byte[] stub() {
+		ClassWriter writer = new ClassWriter(0);
+		writer.visit(version, access, name, null, superName, interfaces);
+
+		for (Member field : fields) {
+			writer.visitField(field.access, field.name, field.descriptor, null, null).visitEnd();
+		}
+		for (Member method : methods) {
+			writer.visitMethod(method.access, method.name, method.descriptor, null, null).visitEnd();
+		}
+
+		writer.visitEnd();
+		return writer.toByteArray();
+	}
+}
@@ -0,0 +1,48 @@
+package com.chocohead.stunture;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Somewhere classes can be read from by name, safe to read from on many threads at once
+ *
+ * @author Chocohead
+ */
+public interface ClassSource extends Closeable {
+	/**
+	 * Something which reads a class, given the class's bytes as a range of an array it must not keep hold of once it returns.
+	 * The array is reused for the next class read on the same thread, so no other class should be read until it returns.
+	 */
+	@FunctionalInterface
+	interface ClassReader<T> {
+		T read(byte[] bytes, int offset, int length) throws IOException;
+	}
+
+	/** Memory map the given jar, indexing every entry in it once up front */
+	static ClassSource map(Path jar) throws IOException {
+		return MappedJar.open(jar);
+	}
+
+	/** The internal name of every class in the source */
+	Collection<String> getClassNames();
+
+	/**
+	 * Read the class with the given internal name
+	 *
+	 * @param name The internal name of the class, such as <code>net/minecraft/client/Minecraft</code>
+	 * @param reader What to read the class with, the bytes it is given are only valid until it returns
+	 *
+	 * @return What the reader returned, or <code>null</code> if the class isn't in the source
+	 *
+	 * @throws IOException If there is an error reading the class
+	 */
+	<T> T readClass(String name, ClassReader<T> reader) throws IOException;
+
+	/** Get a copy of the bytes of the class with the given internal name, or <code>null</code> if it isn't in the source */
+	default byte[] getClassBytes(String name) throws IOException {
+		return readClass(name, (bytes, offset, length) -> Arrays.copyOfRange(bytes, offset, offset + length));
+	}
+}
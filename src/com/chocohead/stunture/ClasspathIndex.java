@@ -0,0 +1,147 @@
+package com.chocohead.stunture;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+/**
+ * An on disk index of the class hierarchy and member signatures of classpath jars.
+ * <p>
+ * Each jar is indexed as a stub jar holding every class without any code, which is all that is needed to resolve the hierarchy whilst remapping.
+ * Stubs are keyed by the jar's path, and only rebuilt when its size, modification time and hash no longer match what was indexed.
+ *
+ * @author Chocohead
+ */
+public class ClasspathIndex {
+	/** The default location of the index */
+	public static final Path DEFAULT = Paths.get(System.getProperty("user.home"), ".stunture", "classpath");
+	/** The version of the stubs, bumped whenever what is kept in them changes */
+	static final int VERSION = 1;
+
+	private final Path directory;
+
+	public ClasspathIndex(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Swap each jar on the given classpath for its index, rebuilding any which are missing or stale
+	 *
+	 * @param classpath The classpath to index
+	 *
+	 * @return The classpath with each jar swapped for its stub, or left as it is if it couldn't be indexed
+	 */
+	public Path[] resolve(Path... classpath) {
+		return Arrays.stream(classpath).parallel().map(this::resolve).toArray(Path[]::new);
+	}
+
+	/** Swap the given jar for its index, rebuilding it if it is missing or stale */
+	public Path resolve(Path jar) {
+		if (!Files.isRegularFile(jar)) return jar; //Directories are left as they are
+
+		try {
+			Path real = jar.toRealPath();
+			String key = Hashing.hash(real.toString().getBytes(StandardCharsets.UTF_8));
+			Path stub = directory.resolve(key + ".jar");
+			Path meta = directory.resolve(key + ".meta");
+
+			long size = Files.size(real);
+			long modified = Files.getLastModifiedTime(real).toMillis();
+			String hash = null;
+
+			if (Files.isRegularFile(stub) && Files.isRegularFile(meta)) {
+				List<String> lines = Files.readAllLines(meta, StandardCharsets.UTF_8);
+
+				if (lines.size() == 5 && Integer.toString(VERSION).equals(lines.get(0)) && real.toString().equals(lines.get(1))) {
+					if (Long.toString(size).equals(lines.get(2)) && Long.toString(modified).equals(lines.get(3))) return stub;
+
+					//Touched but possibly unchanged, only the hash will tell
+					hash = Hashing.hash(real);
+					if (hash.equals(lines.get(4))) {
+						writeMeta(meta, real, size, modified, hash);
+						return stub;
+					}
+				}
+			}
+
+			if (hash == null) hash = Hashing.hash(real);
+			writeStub(real, stub);
+			writeMeta(meta, real, size, modified, hash);
+			return stub;
+		} catch (IOException | RuntimeException e) {
+			System.err.println("Unable to index " + jar + ", using it directly: " + e);
+			return jar;
+		}
+	}
+
+	private static void writeStub(Path jar, Path stub) throws IOException {
+		Files.createDirectories(stub.getParent());
+		Path temp = Files.createTempFile(stub.getParent(), stub.getFileName().toString(), ".tmp");
+
+		try {
+			try (ZipFile in = new ZipFile(jar.toFile()); ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(temp))) {
+				for (Enumeration<? extends ZipEntry> entries = in.entries(); entries.hasMoreElements();) {
+					ZipEntry entry = entries.nextElement();
+					if (entry.isDirectory() || !entry.getName().endsWith(".class")) continue;
+
+					byte[] bytes;
+					try (InputStream stream = in.getInputStream(entry)) {
+						bytes = stub(readFully(stream));
+					}
+
+					out.putNextEntry(new ZipEntry(entry.getName()));
+					out.write(bytes);
+					out.closeEntry();
+				}
+			}
+
+			Files.move(temp, stub, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/** Strip the code out of the given class, leaving only its hierarchy and member signatures */
+	static byte[] stub(byte[] bytes) {
+		ClassReader reader = new ClassReader(bytes);
+		ClassWriter writer = new ClassWriter(0);
+		reader.accept(writer, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+		return writer.toByteArray();
+	}
+
+	private static void writeMeta(Path meta, Path jar, long size, long modified, String hash) throws IOException {
+		Path temp = Files.createTempFile(meta.getParent(), meta.getFileName().toString(), ".tmp");
+
+		try {
+			Files.write(temp, Arrays.asList(Integer.toString(VERSION), jar.toString(), Long.toString(size), Long.toString(modified), hash), StandardCharsets.UTF_8);
+			Files.move(temp, meta, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	static byte[] readFully(InputStream in) throws IOException {
+		byte[] buffer = new byte[8192];
+		int length = 0;
+
+		for (int read; (read = in.read(buffer, length, buffer.length - length)) != -1;) {
+			length += read;
+			if (length == buffer.length) buffer = Arrays.copyOf(buffer, length * 2);
+		}
+
+		return Arrays.copyOf(buffer, length);
+	}
+}
@@ -0,0 +1,71 @@
+package com.chocohead.stunture;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-1 hashing for keying cached files by their contents
+ *
+ * @author Chocohead
+ */
+final class Hashing {
+	private Hashing() {
+	}
+
+	/** Hash the contents of the given file */
+	static String hash(Path file) {
+		MessageDigest digest = digest();
+
+		try (InputStream in = Files.newInputStream(file)) {
+			byte[] buffer = new byte[8192];
+			for (int read; (read = in.read(buffer)) != -1;) {
+				digest.update(buffer, 0, read);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Error hashing " + file, e);
+		}
+
+		return toHex(digest.digest());
+	}
+
+	/** Hash the given bytes */
+	static String hash(byte[] bytes) {
+		return toHex(digest().digest(bytes));
+	}
+
+	/** Hash the given strings together, such as other hashes to form a key from them */
+	static String hash(String... parts) {
+		MessageDigest digest = digest();
+
+		for (String part : parts) {
+			digest.update(part.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+		}
+
+		return toHex(digest.digest());
+	}
+
+	private static MessageDigest digest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("Every JVM should have SHA-1?", e);
+		}
+	}
+
+	static String toHex(byte[] bytes) {
+		StringBuilder out = new StringBuilder(bytes.length * 2);
+
+		for (byte b : bytes) {
+			out.append(Character.forDigit(b >> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+
+		return out.toString();
+	}
+}
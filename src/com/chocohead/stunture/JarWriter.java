@@ -0,0 +1,331 @@
+package com.chocohead.stunture;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A jar writer which compresses each entry in parallel as it is given, then writes them all out in a stable order when closed.
+ * <p>
+ * Entries are sorted by name, with the manifest first, and are all given the same timestamp, so the same classes and resources
+ * always produce the same jar no matter what order they were remapped in. A drop in for {@link net.fabricmc.tinyremapper.OutputConsumerPath}.
+ * <p>
+ * A {@link #streaming(Path, Compression) streaming} writer instead writes entries out as soon as they're compressed, for jars too big to hold at once.
+ *
+ * @author Chocohead
+ */
+public class JarWriter implements BiConsumer<String, byte[]>, Closeable {
+	/** How hard to compress each entry */
+	public enum Compression {
+		/** No compression at all, the fastest to write and read but the largest jar */
+		STORE(Deflater.NO_COMPRESSION),
+		/** The quickest deflating, which is usually most of the size saving for a fraction of the time */
+		FAST(Deflater.BEST_SPEED),
+		/** Deflating's own default level, a middle ground between time and size and what remapped jars have always been written with */
+		DEFAULT(Deflater.DEFAULT_COMPRESSION),
+		/** The smallest jar deflating can manage, for when size matters more than time */
+		MAXIMUM(Deflater.BEST_COMPRESSION);
+
+		final int level;
+
+		private Compression(int level) {
+			this.level = level;
+		}
+
+		/** Get the compression with the given (case insensitive) name, or <code>max</code> for {@link #MAXIMUM} */
+		public static Compression byName(String name) {
+			String upper = name.toUpperCase(Locale.ENGLISH);
+			return "MAX".equals(upper) ? MAXIMUM : valueOf(upper);
+		}
+	}
+
+	/** The MS-DOS time and date every entry is given, 1980-02-01 00:00 as the earliest time which survives every time zone */
+	private static final int DOS_TIME = 0, DOS_DATE = 2 << 5 | 1;
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+	/** Stands in for the entries already written when streaming, so only their names are kept */
+	private static final CompletableFuture<Compressed> DONE = CompletableFuture.completedFuture(null);
+	/** Names sorted with the manifest first, as {@link java.util.jar.JarInputStream} expects, then everything else alphabetically */
+	private static final Comparator<String> ORDER = Comparator.comparing((String name) -> !MANIFEST.equals(name)).thenComparing(Comparator.naturalOrder());
+
+	/** A compressed entry ready to be written */
+	private static class Compressed {
+		final byte[] data;
+		final int length, size, crc;
+		final boolean deflated;
+
+		Compressed(byte[] data, int length, int size, int crc, boolean deflated) {
+			this.data = data;
+			this.length = length;
+			this.size = size;
+			this.crc = crc;
+			this.deflated = deflated;
+		}
+	}
+
+	/** An entry which has been written, waiting for the central directory */
+	private static class Written {
+		final byte[] name;
+		final int length, size, crc;
+		final boolean deflated;
+		final long offset;
+
+		Written(byte[] name, Compressed entry, long offset) {
+			this.name = name;
+			length = entry.length;
+			size = entry.size;
+			crc = entry.crc;
+			deflated = entry.deflated;
+			this.offset = offset;
+		}
+	}
+
+	private final Path output;
+	private final Compression compression;
+	private final Executor executor;
+	/** Whether entries are written in the order they are added as soon as they are compressed, rather than all sorted at the end */
+	private final boolean streaming;
+	private final Map<String, CompletableFuture<Compressed>> entries = new ConcurrentSkipListMap<>(ORDER);
+	private final Queue<Entry<String, CompletableFuture<Compressed>>> pending = new ArrayDeque<>();
+	private final int window = Runtime.getRuntime().availableProcessors() * 4;
+	private final List<Written> central = new ArrayList<>();
+	private final ByteBuffer header = ByteBuffer.allocate(128).order(ByteOrder.LITTLE_ENDIAN);
+	private OutputStream stream;
+	private long position;
+	private volatile long written = -1;
+
+	public JarWriter(Path output, Compression compression) {
+		this(output, compression, ForkJoinPool.commonPool());
+	}
+
+	/** Create a writer to the given jar which compresses entries to the given level on the given executor */
+	public JarWriter(Path output, Compression compression, Executor executor) {
+		this(output, compression, executor, false);
+	}
+
+	private JarWriter(Path output, Compression compression, Executor executor, boolean streaming) {
+		this.output = output;
+		this.compression = compression;
+		this.executor = executor;
+		this.streaming = streaming;
+	}
+
+	/**
+	 * Create a writer to the given jar which writes entries in the order they are added rather than sorting them all when closed.
+	 * Only a handful of entries are ever waiting to be compressed and written at once, so the memory used doesn't grow with the jar.
+	 * The order entries are added in has to be stable for the jar to be, and adding an entry with a name already used is an error.
+	 */
+	public static JarWriter streaming(Path output, Compression compression) {
+		return new JarWriter(output, compression, ForkJoinPool.commonPool(), true);
+	}
+
+	/** Add the given class, named by its internal name, replacing any class of the same name already added */
+	@Override
+	public void accept(String className, byte[] bytes) {
+		add(className.concat(".class"), bytes);
+	}
+
+	/** Add an entry with the given name and contents, replacing any entry of the same name already added unless {@link #streaming(Path, Compression) streaming} */
+	public void add(String name, byte[] bytes) {
+		if (written >= 0) throw new IllegalStateException("Writer has already been closed");
+
+		if (streaming) {
+			synchronized (this) {
+				if (entries.put(name, DONE) != null) throw new IllegalStateException("Duplicate jar entry: " + name);
+				pending.add(new SimpleImmutableEntry<>(name, CompletableFuture.supplyAsync(() -> compress(bytes), executor)));
+
+				try {
+					if (stream == null) stream = open();
+					drain(window);
+				} catch (IOException e) {
+					throw new UncheckedIOException("Error writing " + output, e);
+				}
+			}
+		} else {
+			entries.put(name, CompletableFuture.supplyAsync(() -> compress(bytes), executor));
+		}
+	}
+
+	/** Copy every non-class file from the given jar, returning how many there were */
+	public int addNonClassFiles(Path jar) throws IOException {
+		int files = 0;
+
+		try (ZipFile zip = new ZipFile(jar.toFile())) {
+			for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+				ZipEntry entry = entries.nextElement();
+				if (entry.isDirectory() || entry.getName().endsWith(".class")) continue;
+
+				try (InputStream in = zip.getInputStream(entry)) {
+					add(entry.getName(), ClasspathIndex.readFully(in));
+				}
+				files++;
+			}
+		}
+
+		return files;
+	}
+
+	private Compressed compress(byte[] bytes) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes);
+
+		if (compression != Compression.STORE && bytes.length > 0) {
+			Deflater deflater = new Deflater(compression.level, true);
+			try {
+				deflater.setInput(bytes);
+				deflater.finish();
+
+				//If it doesn't fit in the same space it's not worth deflating
+				byte[] out = new byte[bytes.length];
+				int length = 0;
+				while (!deflater.finished() && length < out.length) {
+					length += deflater.deflate(out, length, out.length - length);
+				}
+
+				if (deflater.finished()) return new Compressed(out, length, bytes.length, (int) crc.getValue(), true);
+			} finally {
+				deflater.end();
+			}
+		}
+
+		return new Compressed(bytes, bytes.length, bytes.length, (int) crc.getValue(), false);
+	}
+
+	/** The size of the written jar in bytes, or <code>-1</code> if it hasn't been written yet */
+	public long getWrittenBytes() {
+		return written;
+	}
+
+	/** Wait for every entry to be compressed, then write them all out */
+	@Override
+	public void close() throws IOException {
+		if (written >= 0) return;
+
+		if (streaming) {
+			synchronized (this) {
+				if (stream == null) stream = open();
+				drain(0);
+				finish(stream);
+			}
+		} else {
+			try (OutputStream out = open()) {
+				for (Entry<String, CompletableFuture<Compressed>> entry : entries.entrySet()) {
+					writeLocal(out, entry.getKey(), join(entry.getValue()));
+				}
+				entries.clear();
+
+				finish(out);
+			}
+		}
+	}
+
+	private OutputStream open() throws IOException {
+		return new BufferedOutputStream(Files.newOutputStream(output), 1 << 16);
+	}
+
+	private static Compressed join(CompletableFuture<Compressed> entry) throws IOException {
+		try {
+			return entry.join();
+		} catch (CompletionException e) {
+			throw new IOException("Error compressing jar entry", e.getCause());
+		}
+	}
+
+	/** Write out the oldest pending entries until there are no more than the given number left, only for streaming */
+	private void drain(int limit) throws IOException {
+		while (pending.size() > limit) {
+			Entry<String, CompletableFuture<Compressed>> entry = pending.poll();
+			writeLocal(stream, entry.getKey(), join(entry.getValue()));
+		}
+	}
+
+	private void writeLocal(OutputStream out, String name, Compressed entry) throws IOException {
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+
+		header.clear();
+		header.putInt(0x04034B50).putShort((short) 20).putShort((short) 0x0800).putShort((short) (entry.deflated ? ZipEntry.DEFLATED : ZipEntry.STORED));
+		header.putShort((short) DOS_TIME).putShort((short) DOS_DATE).putInt(entry.crc).putInt(entry.length).putInt(entry.size);
+		header.putShort((short) nameBytes.length).putShort((short) 0);
+		out.write(header.array(), 0, header.position());
+		out.write(nameBytes);
+		out.write(entry.data, 0, entry.length);
+
+		central.add(new Written(nameBytes, entry, position));
+		position += header.position() + nameBytes.length + entry.length;
+	}
+
+	/** Write the central directory for every entry written so far, finishing the jar */
+	private void finish(OutputStream out) throws IOException {
+		try {
+			long centralStart = position;
+			for (Written entry : central) {
+				boolean farOffset = entry.offset >= 0xFFFFFFFFL;
+
+				header.clear();
+				header.putInt(0x02014B50).putShort((short) (farOffset ? 45 : 20)).putShort((short) (farOffset ? 45 : 20)).putShort((short) 0x0800);
+				header.putShort((short) (entry.deflated ? ZipEntry.DEFLATED : ZipEntry.STORED)).putShort((short) DOS_TIME).putShort((short) DOS_DATE);
+				header.putInt(entry.crc).putInt(entry.length).putInt(entry.size).putShort((short) entry.name.length).putShort((short) (farOffset ? 12 : 0));
+				header.putShort((short) 0).putShort((short) 0).putShort((short) 0).putInt(0).putInt(farOffset ? -1 : (int) entry.offset);
+				out.write(header.array(), 0, header.position());
+				out.write(entry.name);
+				position += header.position() + entry.name.length;
+
+				if (farOffset) { //Zip64 extended information, only the offset is too big
+					header.clear();
+					header.putShort((short) 0x0001).putShort((short) 8).putLong(entry.offset);
+					out.write(header.array(), 0, header.position());
+					position += header.position();
+				}
+			}
+
+			int count = central.size();
+			long centralSize = position - centralStart;
+			boolean zip64 = count >= 0xFFFF || centralStart >= 0xFFFFFFFFL || centralSize >= 0xFFFFFFFFL;
+			if (zip64) {
+				header.clear();
+				header.putInt(0x06064B50).putLong(44).putShort((short) 45).putShort((short) 45).putInt(0).putInt(0);
+				header.putLong(count).putLong(count).putLong(centralSize).putLong(centralStart);
+				header.putInt(0x07064B50).putInt(0).putLong(position).putInt(1);
+				out.write(header.array(), 0, header.position());
+				position += header.position();
+			}
+
+			header.clear();
+			header.putInt(0x06054B50).putShort((short) 0).putShort((short) 0);
+			header.putShort((short) (zip64 ? 0xFFFF : count)).putShort((short) (zip64 ? 0xFFFF : count));
+			header.putInt(zip64 ? -1 : (int) centralSize).putInt(zip64 ? -1 : (int) centralStart).putShort((short) 0);
+			out.write(header.array(), 0, header.position());
+			written = position + header.position();
+		} finally {
+			central.clear();
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package com.chocohead.stunture;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Allocation light line by line tokenizer for SRG and MCP files, reading straight from a {@link Reader} into its own buffers.
+ * Only the tokens which are asked for become {@link String}s, and each distinct token only ever becomes one.
+ *
+ * @author Chocohead
+ */
+class LineTokenizer implements Closeable {
+	private final Reader in;
+	private final char[] buffer = new char[8192];
+	private int bufferPosition, bufferEnd;
+	private boolean finished;
+
+	private char[] line = new char[256];
+	private int length, lineNumber, cursor;
+	/** The bounds of the last token found by {@link #nextToken(char)} */
+	public int tokenStart, tokenEnd;
+
+	private String[] pool = new String[4096];
+	private int poolSize;
+	private char[] scratch = new char[256];
+
+	public LineTokenizer(Reader in) {
+		this.in = in;
+	}
+
+	/**
+	 * Move on to the next line
+	 *
+	 * @return Whether there was another line to move on to
+	 *
+	 * @throws IOException If an error occurs reading from the underlying {@link Reader}
+	 */
+	public boolean nextLine() throws IOException {
+		length = cursor = 0;
+		if (finished) return false;
+
+		while (true) {
+			if (bufferPosition == bufferEnd) {
+				bufferEnd = in.read(buffer);
+				bufferPosition = 0;
+
+				if (bufferEnd < 0) {
+					bufferEnd = 0;
+					finished = true;
+
+					if (length == 0) return false;
+					lineNumber++;
+					return true;
+				}
+			}
+
+			char c = buffer[bufferPosition++];
+			if (c == '\n') {
+				if (length > 0 && line[length - 1] == '\r') length--;
+				lineNumber++;
+				return true;
+			}
+
+			if (length == line.length) line = Arrays.copyOf(line, length * 2);
+			line[length++] = c;
+		}
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public char charAt(int index) {
+		return line[index];
+	}
+
+	/** Move the start of the next token to the given index on the line */
+	public void skipTo(int index) {
+		cursor = index;
+	}
+
+	/**
+	 * Find the next token from the current position up to the given delimiter (or the end of the line), setting {@link #tokenStart} and {@link #tokenEnd}
+	 *
+	 * @param delimiter The character which ends the token
+	 *
+	 * @return Whether there was a token to find, rather than already being at the end of the line
+	 */
+	public boolean nextToken(char delimiter) {
+		if (cursor > length) return false;
+
+		tokenStart = cursor;
+		while (cursor < length && line[cursor] != delimiter) cursor++;
+		tokenEnd = cursor++;
+
+		return true;
+	}
+
+	/** Find the next token from the current position, throwing an error naming the missing part if there is none */
+	public void expectToken(char delimiter, String name) {
+		if (!nextToken(delimiter)) throw error("Missing " + name);
+	}
+
+	public int lastIndexOf(char c, int start, int end) {
+		for (int i = end - 1; i >= start; i--) {
+			if (line[i] == c) return i;
+		}
+
+		return -1;
+	}
+
+	public boolean regionMatches(int start, int end, int otherStart, int otherEnd) {
+		if (end - start != otherEnd - otherStart) return false;
+
+		for (int i = start, j = otherStart; i < end; i++, j++) {
+			if (line[i] != line[j]) return false;
+		}
+
+		return true;
+	}
+
+	/** Get the {@link String} for the given section of the line, which will be the same instance for every equal section */
+	public String intern(int start, int end) {
+		return intern(line, start, end - start);
+	}
+
+	/** Get the {@link String} for the two given sections of the line joined, which will be the same instance for every equal pair */
+	public String intern(int start, int end, int otherStart, int otherEnd) {
+		int length = end - start + otherEnd - otherStart;
+		if (length > scratch.length) scratch = new char[Math.max(length, scratch.length * 2)];
+
+		System.arraycopy(line, start, scratch, 0, end - start);
+		System.arraycopy(line, otherStart, scratch, end - start, otherEnd - otherStart);
+		return intern(scratch, 0, length);
+	}
+
+	private String intern(char[] chars, int offset, int length) {
+		int hash = 0;
+		for (int i = offset, end = offset + length; i < end; i++) {
+			hash = 31 * hash + chars[i];
+		}
+
+		int mask = pool.length - 1;
+		for (int slot = mix(hash) & mask;; slot = slot + 1 & mask) {
+			String existing = pool[slot];
+
+			if (existing == null) {
+				String out = new String(chars, offset, length);
+				pool[slot] = out;
+				if (++poolSize * 2 > pool.length) growPool();
+				return out;
+			}
+
+			if (existing.hashCode() == hash && matches(existing, chars, offset, length)) return existing;
+		}
+	}
+
+	private static int mix(int hash) {
+		return hash ^ hash >>> 16;
+	}
+
+	private static boolean matches(String string, char[] chars, int offset, int length) {
+		if (string.length() != length) return false;
+
+		for (int i = 0; i < length; i++) {
+			if (string.charAt(i) != chars[offset + i]) return false;
+		}
+
+		return true;
+	}
+
+	private void growPool() {
+		String[] old = pool;
+		pool = new String[old.length * 2];
+
+		int mask = pool.length - 1;
+		for (String string : old) {
+			if (string == null) continue;
+
+			int slot = mix(string.hashCode()) & mask;
+			while (pool[slot] != null) slot = slot + 1 & mask;
+			pool[slot] = string;
+		}
+	}
+
+	/** Produce an exception for the given problem with the current line, noting where it is */
+	public IllegalStateException error(String message) {
+		return new IllegalStateException(message + " on line " + lineNumber + ": " + new String(line, 0, length));
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
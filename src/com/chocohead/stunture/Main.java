@@ -1,26 +1,116 @@
 package com.chocohead.stunture;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
-import net.fabricmc.tinyremapper.OutputConsumerPath;
+import net.fabricmc.tinyremapper.IMappingProvider;
 import net.fabricmc.tinyremapper.TinyRemapper;
 
-import com.chocohead.rift.ClassMapping;
+import com.chocohead.rift.BlobDelta;
 import com.chocohead.rift.MappingBlob;
+import com.chocohead.rift.RemapperTables;
+import com.chocohead.stunture.JarWriter.Compression;
 
 public class Main {
+	/** The index used in place of the jars on the classpath */
+	private static final ClasspathIndex CLASSPATH_INDEX = new ClasspathIndex(ClasspathIndex.DEFAULT);
+
 	public static void main(String... args) {
+		Path metricsFile = null;
+		if (args != null && args.length > 1 && "--metrics".equals(args[0])) {
+			metricsFile = Paths.get(args[1]);
+			args = Arrays.copyOfRange(args, 2, args.length);
+		}
+
+		Compression compression = Compression.DEFAULT;
+		if (args != null && args.length > 1 && "--compression".equals(args[0])) {
+			try {
+				compression = Compression.byName(args[1]);
+			} catch (IllegalArgumentException e) {
+				System.out.println("Unknown compression " + args[1] + ", expected store, fast, default or max");
+				System.exit(1);
+			}
+			args = Arrays.copyOfRange(args, 2, args.length);
+		}
+
+		boolean reverse = args != null && args.length > 0 && "--reverse".equals(args[0]);
+		if (reverse) args = Arrays.copyOfRange(args, 1, args.length);
+
+		if (args != null && args.length > 0) {
+			switch (args[0]) {
+			case "--batch":
+				batch(metricsFile, compression, reverse, Arrays.copyOfRange(args, 1, args.length));
+				return;
+
+			case "--daemon":
+				daemon(Arrays.copyOfRange(args, 1, args.length));
+				return;
+
+			case "--stop-daemon":
+				System.out.println(RemapDaemon.stop() ? "Stopped daemon" : "No daemon running");
+				return;
+
+			case "--diff-mappings":
+				diffMappings(Arrays.copyOfRange(args, 1, args.length));
+				return;
+
+			case "--patch-mappings":
+				patchMappings(Arrays.copyOfRange(args, 1, args.length));
+				return;
+			}
+		}
+
+		boolean incremental = args != null && args.length > 0 && "--incremental".equals(args[0]);
+		if (incremental) args = Arrays.copyOfRange(args, 1, args.length);
+
+		boolean client = !incremental && args != null && args.length > 0 && "--client".equals(args[0]);
+		if (client) args = Arrays.copyOfRange(args, 1, args.length);
+
+		long budget = -1;
+		if (!incremental && !client && args != null && args.length > 1 && "--stream".equals(args[0])) {
+			try {
+				long megabytes = Long.parseLong(args[1]);
+				if (megabytes <= 0) throw new NumberFormatException("Non-positive budget");
+				budget = Math.multiplyExact(megabytes, 1L << 20);
+			} catch (NumberFormatException | ArithmeticException e) {
+				System.out.println("Invalid batch budget " + args[1] + ", expected a number of megabytes of classes to remap at once between 1 and " + (Long.MAX_VALUE >> 20));
+				System.out.println("Usage: [--metrics <report>] [--compression <store|fast|default|max>] [--reverse] --stream <batch megabytes> <input> <output> <mappings> [<classpath>...]");
+				System.exit(1);
+			}
+			args = Arrays.copyOfRange(args, 2, args.length);
+		}
+
 		if (args == null || args.length < 3) {
-			System.out.println("Usage: <input> <output> <mappings> [<classpath>...]");
+			System.out.println("Usage: [--metrics <report>] [--compression <store|fast|default|max>] [--reverse] [--incremental | --client | --stream <batch megabytes>] <input> <output> <mappings> [<classpath>...]");
+			System.out.println("       [--metrics <report>] [--compression <store|fast|default|max>] [--reverse] --batch <manifest> <mappings> [<classpath>...]");
+			System.out.println("       --daemon [--port <port>] [--jobs <jobs>]");
+			System.out.println("       --stop-daemon");
+			System.out.println("       --diff-mappings <from> <to> <delta>");
+			System.out.println("       --patch-mappings <mappings> <delta> [<output>]");
 			System.exit(1);
 		}
 
@@ -36,13 +126,559 @@ public class Main {
 			System.exit(3);
 		}
 
-		Path mappings = Paths.get(args[2]);
+		Path mappings = checkMappings(args[2]);
+		Path[] classpath = readClasspath(args, 3);
+
+		if (client) {
+			try {
+				String response = RemapDaemon.submit(input, output, mappings, reverse, compression, metricsFile, classpath);
+
+				if (response != null) {
+					System.out.println(response);
+					return;
+				}
+			} catch (IllegalStateException e) {
+				System.out.println("Daemon failed to remap: " + e.getMessage());
+				System.exit(7);
+			}
+
+			System.out.println("No daemon running, remapping in process");
+		}
+
+		Metrics metrics = new Metrics(reverse ? "reobf" : "remap");
+		try {
+			RemapperTables tables = getTables(readMappings(mappings, metrics), reverse, metrics);
+
+			if (incremental) {
+				String identity;
+				try (Metrics.Phase phase = metrics.start("hash-mappings")) {
+					identity = Hashing.hash(Hashing.hash(mappings), Boolean.toString(reverse));
+					phase.count("bytes", Files.size(mappings));
+				}
+
+				new RemapCache(RemapCache.DEFAULT).remap(tables, identity, input, output, compression, metrics, classpath);
+			} else if (budget > 0) {
+				StreamingRemap.remap(tables, input, output, compression, budget, metrics, classpath);
+			} else {
+				remap(tables, input, output, compression, metrics, classpath);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Error remapping jar!", e);
+		} finally {
+			metrics.finish();
+		}
+
+		writeMetrics(metrics, metricsFile);
+	}
+
+	/** Map the provided mappings blob, which only decodes the classes or tables once they're needed */
+	private static MappingBlob readMappings(Path mappings, Metrics metrics) {
+		try (Metrics.Phase phase = metrics.start("read-mappings")) {
+			MappingBlob blob = MappingBlob.map(mappings.toFile(), false);
+			phase.count("bytes", mappings.toFile().length()).count("classes", blob.mappings.size());
+			return blob;
+		}
+	}
+
+	/** Get the tables from the given mappings blob to remap with, either from Notch to MCP or back from MCP to Notch */
+	static RemapperTables getTables(MappingBlob blob, boolean reverse, Metrics metrics) {
+		if (!reverse) return blob.getRemapperTables();
+
+		try (Metrics.Phase phase = metrics.start("reverse-mappings")) {
+			RemapperTables tables = blob.getReverseRemapperTables();
+			phase.count("classes", tables.classes.size()).count("methods", tables.methods.size()).count("fields", tables.fields.size());
+			return tables;
+		}
+	}
+
+	/** Write the JSON report for the given metrics to the given file, if there is one */
+	private static void writeMetrics(Metrics metrics, Path to) {
+		if (to == null) return;
+
+		try {
+			metrics.writeJson(to);
+		} catch (IOException e) {
+			System.out.println("Unable to write metrics to " + to + ": " + e);
+		}
+	}
+
+	/** Remap the given input to the given output using the given mappings and classpath, recording each phase in the given metrics */
+	static void remap(MappingBlob blob, Path input, Path output, Metrics metrics, Path... classpath) throws IOException {
+		remap(blob.getRemapperTables(), input, output, Compression.DEFAULT, metrics, classpath);
+	}
+
+	/** Remap the given input to the given output using the given tables and classpath, recording each phase in the given metrics */
+	static void remap(RemapperTables tables, Path input, Path output, Compression compression, Metrics metrics, Path... classpath) throws IOException {
+		remap(tables, input, output, compression, metrics, indexClasspath(metrics, classpath), null);
+	}
+
+	/**
+	 * Remap the given input to the given output using the given tables and already indexed classpath, recording each phase in the given metrics
+	 *
+	 * @param tables The tables to remap with
+	 * @param input The jar to remap
+	 * @param output Where to write the remapped jar
+	 * @param compression How to compress the remapped jar
+	 * @param metrics The metrics to record each phase in
+	 * @param indexed The classpath, already swapped for its stubs by {@link #indexClasspath(Metrics, Path...)}
+	 * @param hierarchy The {@link PassthroughFilter#readHierarchy(java.util.function.Predicate, Path...) hierarchy} of the indexed classpath,
+	 * or <code>null</code> to read it from the classpath
+	 */
+	static void remap(RemapperTables tables, Path input, Path output, Compression compression, Metrics metrics, Path[] indexed, Map<String, String[]> hierarchy) throws IOException {
+		JarWriter out = new JarWriter(output, compression);
+
+		try {
+			try (Metrics.Phase phase = metrics.start("copy-resources")) {
+				phase.count("files", out.addNonClassFiles(input));
+			}
+
+			remapInput(tables, input, indexed, hierarchy, metrics, out);
+		} finally {
+			close(out, metrics, "write-output");
+		}
+	}
+
+	/**
+	 * Pass through every class of the given input which remapping can't affect, then remap the rest, leaving the input's other files to the caller
+	 *
+	 * @param tables The tables to remap with
+	 * @param input The jar to remap the classes of
+	 * @param indexed The classpath, already swapped for its stubs by {@link #indexClasspath(Metrics, Path...)}
+	 * @param hierarchy The {@link PassthroughFilter#readHierarchy(java.util.function.Predicate, Path...) hierarchy} of the indexed classpath,
+	 * or <code>null</code> to read it from the classpath
+	 * @param metrics The metrics to record each phase in
+	 * @param out Where to write the passed through and remapped classes
+	 */
+	static void remapInput(RemapperTables tables, Path input, Path[] indexed, Map<String, String[]> hierarchy, Metrics metrics, BiConsumer<String, byte[]> out) throws IOException {
+		Map<String, byte[]> classes = readInput(input, metrics);
+		Set<String> remapping = passthrough(tables, classes, classes.keySet(), indexed, hierarchy, metrics, out);
+
+		if (remapping.size() == classes.size()) {
+			//Nothing was passed through, so the input can be given to the remapper as it is
+			TinyRemapper remapper = createRemapper(tables, metrics);
+
+			try {
+				readClasses(remapper, metrics, indexed, input);
+
+				try (Metrics.Phase phase = metrics.start("apply")) {
+					remapper.apply(input, phase.countClasses(out));
+				}
+			} finally {
+				remapper.finish();
+			}
+		} else if (!remapping.isEmpty()) {
+			remapClasses(tables, classes, remapping, indexed, metrics, out);
+		}
+	}
+
+	/** Write out everything given to the given writer, recording it as the given phase */
+	static void close(JarWriter out, Metrics metrics, String phaseName) throws IOException {
+		try (Metrics.Phase phase = metrics.start(phaseName)) {
+			out.close();
+			phase.count("bytes", out.getWrittenBytes());
+		}
+	}
+
+	/** Read every class from the given input jar, from internal name to bytes */
+	static Map<String, byte[]> readInput(Path input, Metrics metrics) throws IOException {
+		Map<String, byte[]> classes = new HashMap<>();
+
+		try (Metrics.Phase phase = metrics.start("read-input"); ZipFile jar = new ZipFile(input.toFile())) {
+			long read = 0;
+
+			for (Enumeration<? extends ZipEntry> entries = jar.entries(); entries.hasMoreElements();) {
+				ZipEntry entry = entries.nextElement();
+				if (entry.isDirectory() || !entry.getName().endsWith(".class")) continue;
+
+				try (InputStream in = jar.getInputStream(entry)) {
+					byte[] bytes = ClasspathIndex.readFully(in);
+					classes.put(entry.getName().substring(0, entry.getName().length() - 6), bytes);
+					read += bytes.length;
+				}
+			}
+
+			phase.count("classes", classes.size()).count("bytes", read);
+		}
+
+		return classes;
+	}
+
+	/**
+	 * Copy each of the given classes which the {@link PassthroughFilter} shows remapping can't affect straight to the given output
+	 *
+	 * @param tables The tables the classes will be remapped with
+	 * @param classes Every class of the input, from internal name to bytes
+	 * @param candidates The names of the classes to try pass through
+	 * @param classpath The indexed classpath the classes will be remapped with
+	 * @param metrics The metrics to record the phase in
+	 * @param out Where to write the classes which are passed through
+	 *
+	 * @return The names of the candidates which still need remapping
+	 */
+	static Set<String> passthrough(RemapperTables tables, Map<String, byte[]> classes, Set<String> candidates, Path[] classpath, Metrics metrics, BiConsumer<String, byte[]> out) throws IOException {
+		return passthrough(tables, classes, candidates, classpath, null, metrics, out);
+	}
+
+	/** As {@link #passthrough(RemapperTables, Map, Set, Path[], Metrics, BiConsumer)}, with the hierarchy of the classpath if it has already been read */
+	private static Set<String> passthrough(RemapperTables tables, Map<String, byte[]> classes, Set<String> candidates, Path[] classpath, Map<String, String[]> hierarchy, Metrics metrics, BiConsumer<String, byte[]> out) throws IOException {
+		try (Metrics.Phase phase = metrics.start("prescan")) {
+			PassthroughFilter filter = hierarchy != null ? PassthroughFilter.create(tables, classes, hierarchy) : PassthroughFilter.create(tables, classes, classpath);
+
+			Set<String> remapping = candidates.parallelStream().filter(name -> !filter.canPassthrough(classes.get(name))).collect(Collectors.toSet());
+			long passedBytes = 0;
+			for (String name : candidates) {
+				if (remapping.contains(name)) continue;
+
+				byte[] bytes = classes.get(name);
+				out.accept(name, bytes);
+				passedBytes += bytes.length;
+			}
+
+			phase.count("passthrough", candidates.size() - remapping.size()).count("bytes", passedBytes).count("remapping", remapping.size());
+			return remapping;
+		}
+	}
+
+	/**
+	 * Remap only the given subset of the given classes, with the rest stubbed out on the classpath so the hierarchy is still complete
+	 *
+	 * @param tables The tables to remap with
+	 * @param classes Every class of the input, from internal name to bytes
+	 * @param remapping The names of the classes to remap
+	 * @param classpath The indexed classpath to remap with
+	 * @param metrics The metrics to record each phase in
+	 * @param out Where to write the remapped classes
+	 */
+	static void remapClasses(RemapperTables tables, Map<String, byte[]> classes, Set<String> remapping, Path[] classpath, Metrics metrics, BiConsumer<String, byte[]> out) throws IOException {
+		Path remapJar = Files.createTempFile("stunture-remap", ".jar");
+		Path contextJar = Files.createTempFile("stunture-context", ".jar");
+
+		try {
+			try (Metrics.Phase phase = metrics.start("split-input");
+					ZipOutputStream remapOut = new ZipOutputStream(Files.newOutputStream(remapJar));
+					ZipOutputStream contextOut = new ZipOutputStream(Files.newOutputStream(contextJar))) {
+				for (Entry<String, byte[]> entry : classes.entrySet()) {
+					if (remapping.contains(entry.getKey())) {
+						writeEntry(remapOut, entry.getKey().concat(".class"), entry.getValue());
+					} else {
+						writeEntry(contextOut, entry.getKey().concat(".class"), ClasspathIndex.stub(entry.getValue()));
+					}
+				}
+
+				phase.count("remapping", remapping.size()).count("context", classes.size() - remapping.size());
+			}
+
+			TinyRemapper remapper = createRemapper(tables, metrics);
+			try {
+				try (Metrics.Phase phase = metrics.start("read-classes")) {
+					remapper.read(classpath);
+					remapper.read(contextJar, remapJar);
+					phase.count("jars", classpath.length + 2);
+				}
+
+				try (Metrics.Phase phase = metrics.start("apply")) {
+					remapper.apply(remapJar, phase.countClasses(out));
+				}
+			} finally {
+				remapper.finish();
+			}
+		} finally {
+			Files.deleteIfExists(remapJar);
+			Files.deleteIfExists(contextJar);
+		}
+	}
+
+	static void writeEntry(ZipOutputStream out, String name, byte[] bytes) throws IOException {
+		out.putNextEntry(new ZipEntry(name));
+		out.write(bytes);
+		out.closeEntry();
+	}
+
+	static TinyRemapper createRemapper(RemapperTables tables, Metrics metrics) {
+		try (Metrics.Phase phase = metrics.start("setup-remapper")) {
+			phase.count("classes", tables.classes.size()).count("methods", tables.methods.size()).count("fields", tables.fields.size());
+
+			return TinyRemapper.newRemapper().withMappings(createProvider(tables)).build();
+		}
+	}
+
+	/** Swap each jar on the given classpath for its stub from the {@link #CLASSPATH_INDEX} */
+	static Path[] indexClasspath(Metrics metrics, Path... classpath) {
+		return indexClasspath(CLASSPATH_INDEX, metrics, classpath);
+	}
+
+	/** Swap each jar on the given classpath for its stub from the given index */
+	static Path[] indexClasspath(ClasspathIndex index, Metrics metrics, Path... classpath) {
+		try (Metrics.Phase phase = metrics.start("index-classpath")) {
+			Path[] indexed = index.resolve(classpath);
+			phase.count("jars", classpath.length);
+			return indexed;
+		}
+	}
+
+	/** Read the given (already indexed) classpath and the given inputs into the given remapper */
+	private static void readClasses(TinyRemapper remapper, Metrics metrics, Path[] indexed, Path... inputs) {
+		try (Metrics.Phase phase = metrics.start("read-classes")) {
+			remapper.read(indexed);
+			remapper.read(inputs);
+			phase.count("jars", indexed.length + inputs.length);
+		}
+	}
+
+	/** Write a {@link BlobDelta} between two mapping blobs */
+	private static void diffMappings(String... args) {
+		if (args.length != 3) {
+			System.out.println("Usage: --diff-mappings <from> <to> <delta>");
+			System.exit(1);
+		}
+
+		Path delta = Paths.get(args[2]);
+		if (Files.exists(delta)) {
+			System.out.println("Delta file already exists at " + delta + '.');
+			System.exit(3);
+		}
+
+		MappingBlob from = MappingBlob.read(checkMappings(args[0]).toFile());
+		MappingBlob to = MappingBlob.read(checkMappings(args[1]).toFile());
+		BlobDelta.write(from, to, delta.toFile());
+
+		System.out.println("Wrote " + delta.toFile().length() + " byte delta to " + delta);
+	}
+
+	/** Apply a {@link BlobDelta} to a mapping blob, updating it in place unless given somewhere else to write it */
+	private static void patchMappings(String... args) {
+		if (args.length != 2 && args.length != 3) {
+			System.out.println("Usage: --patch-mappings <mappings> <delta> [<output>]");
+			System.exit(1);
+		}
+
+		Path mappings = checkMappings(args[0]);
+		Path delta = Paths.get(args[1]);
+		if (!Files.isReadable(delta)) {
+			System.out.println("Can't read delta file " + delta + '.');
+			System.exit(2);
+		}
+
+		long start = System.nanoTime();
+		BlobDelta.apply(mappings.toFile(), delta.toFile(), args.length > 2 ? new File(args[2]) : mappings.toFile());
+		System.out.println("Patched " + mappings + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+	}
+
+	/** Run a {@link RemapDaemon} until it is told to stop */
+	private static void daemon(String... args) {
+		int port = 0;
+		int jobs = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+		for (int i = 0; i < args.length; i++) {
+			try {
+				switch (args[i]) {
+				case "--port":
+					port = Integer.parseInt(args[++i]);
+					break;
+
+				case "--jobs":
+					jobs = Integer.parseInt(args[++i]);
+					break;
+
+				default:
+					System.out.println("Unexpected daemon argument: " + args[i]);
+					System.exit(1);
+				}
+			} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+				System.out.println("Invalid value for " + args[i - 1]);
+				System.exit(1);
+			}
+		}
+
+		try {
+			new RemapDaemon(port, jobs).run();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Error running daemon!", e);
+		}
+	}
+
+	/**
+	 * Remap every input in the given manifest to its output in parallel, sharing the mappings, indexed classpath and its hierarchy between all of them.
+	 * Each job passes through the classes remapping can't affect just as a single remap does.
+	 * The manifest has an <code>input -&gt; output</code> pair per line, ignoring blank lines and those starting with <code>#</code>.
+	 */
+	private static void batch(Path metricsFile, Compression compression, boolean reverse, String... args) {
+		if (args.length < 2) {
+			System.out.println("Usage: [--compression <store|fast|default|max>] [--reverse] --batch <manifest> <mappings> [<classpath>...]");
+			System.exit(1);
+		}
+
+		Path manifest = Paths.get(args[0]);
+		List<RemapJob> jobs = new ArrayList<>();
+		try {
+			int lineNumber = 0;
+			for (String line : Files.readAllLines(manifest)) {
+				lineNumber++;
+				if (line.trim().isEmpty() || line.startsWith("#")) continue;
+
+				int split = line.indexOf("->");
+				if (split < 0) {
+					System.out.println("Invalid manifest line " + lineNumber + ", expected <input> -> <output>: " + line);
+					System.exit(2);
+				}
+
+				jobs.add(new RemapJob(Paths.get(line.substring(0, split).trim()), Paths.get(line.substring(split + 2).trim())));
+			}
+		} catch (IOException e) {
+			System.out.println("Can't read manifest file " + manifest + ": " + e);
+			System.exit(2);
+		}
+
+		Path mappings = checkMappings(args[1]);
+		Path[] classpath = readClasspath(args, 2);
+		Metrics metrics = new Metrics("batch");
+		RemapperTables tables = getTables(readMappings(mappings, metrics), reverse, metrics);
+
+		List<RemapJob> valid = new ArrayList<>();
+		for (RemapJob job : jobs) {
+			if (!Files.isReadable(job.input)) {
+				job.fail("Can't read input file");
+			} else if (Files.exists(job.output)) {
+				job.fail("Output file already exists");
+			} else {
+				RemapJob clash = valid.stream().filter(other -> other.output.equals(job.output)).findAny().orElse(null);
+				if (clash != null) {
+					job.fail("Output file is already used by " + clash.input);
+					continue;
+				}
+
+				valid.add(job);
+			}
+		}
+
+		if (!valid.isEmpty()) {
+			//Only the tables and the indexed classpath are shared, each job reads its input into a remapper of its own
+			Path[] indexed = indexClasspath(metrics, classpath);
+			Map<String, String[]> hierarchy;
+			try (Metrics.Phase phase = metrics.start("read-classpath")) {
+				hierarchy = PassthroughFilter.readHierarchy(name -> false, indexed);
+				phase.count("jars", indexed.length).count("classes", hierarchy.size());
+			} catch (IOException e) {
+				System.out.println("Can't read classpath: " + e);
+				System.exit(5);
+				return;
+			}
+			ExecutorService executor = Executors.newFixedThreadPool(Math.min(valid.size(), Runtime.getRuntime().availableProcessors()));
+
+			try {
+				List<CompletableFuture<Void>> tasks = new ArrayList<>();
+				for (RemapJob job : valid) {
+					tasks.add(CompletableFuture.runAsync(() -> {
+						JarWriter out = job.open(compression, metrics);
+						if (out != null) job.remap(tables, indexed, hierarchy, out, metrics);
+						job.close(out, metrics);
+					}, executor));
+				}
+
+				CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).join();
+			} finally {
+				executor.shutdown();
+			}
+		}
+		metrics.finish();
+		writeMetrics(metrics, metricsFile);
+
+		int failed = 0;
+		for (RemapJob job : jobs) {
+			System.out.println(job);
+			if (job.failure != null) failed++;
+		}
+		System.out.println("Remapped " + (jobs.size() - failed) + " of " + jobs.size() + " jars");
+
+		if (failed > 0) System.exit(6);
+	}
+
+	/** A single input to output remap for {@link #batch(Path, Compression, boolean, String...)} */
+	private static class RemapJob {
+		public final Path input, output;
+		/** How many classes have been written to the output, whether passed through or remapped */
+		private final AtomicInteger classes = new AtomicInteger();
+		private long start, time;
+		String failure;
+
+		public RemapJob(Path input, Path output) {
+			this.input = input;
+			this.output = output;
+		}
+
+		void fail(String reason) {
+			if (failure == null) failure = reason;
+		}
+
+		JarWriter open(Compression compression, Metrics metrics) {
+			start = System.nanoTime();
+
+			try (Metrics.Phase phase = metrics.start("copy-resources " + input)) {
+				JarWriter out = new JarWriter(output, compression);
+				phase.count("files", out.addNonClassFiles(input));
+				return out;
+			} catch (IOException | RuntimeException e) {
+				fail("Error opening output: " + e);
+				return null;
+			}
+		}
+
+		/**
+		 * Remap the job's input with a remapper of its own, so jobs can run alongside each other
+		 * and classes with the same name in different inputs (such as shaded libraries) are never mixed up
+		 */
+		void remap(RemapperTables tables, Path[] classpath, Map<String, String[]> hierarchy, JarWriter out, Metrics metrics) {
+			try {
+				Main.remapInput(tables, input, classpath, hierarchy, metrics, (name, bytes) -> {
+					out.accept(name, bytes);
+					classes.incrementAndGet();
+				});
+			} catch (IOException | RuntimeException e) {
+				fail("Error remapping: " + e);
+			}
+		}
+
+		void close(JarWriter out, Metrics metrics) {
+			if (out != null) {
+				try {
+					Main.close(out, metrics, "write-output " + output);
+				} catch (IOException | RuntimeException e) {
+					fail("Error writing output: " + e);
+				}
+			}
+
+			if (failure != null) {
+				try {
+					Files.deleteIfExists(output);
+				} catch (IOException e) {
+					//Not much else to be done
+				}
+			}
+
+			time = System.nanoTime() - start;
+		}
+
+		@Override
+		public String toString() {
+			if (failure != null) return input + " -> " + output + ": FAILED, " + failure;
+			return input + " -> " + output + ": " + classes.get() + " classes in " + time / 1000000 + "ms";
+		}
+	}
+
+	/** Check the mappings blob at the given path exists, exiting if it doesn't */
+	private static Path checkMappings(String path) {
+		Path mappings = Paths.get(path);
 		if (!Files.isReadable(mappings) || Files.isDirectory(mappings)) {
 			System.out.println("Invalid mappings file " + mappings + '.');
 			System.exit(4);
 		}
 
-		Path[] classpath = Arrays.stream(args).skip(3).map(Paths::get).toArray(Path[]::new);
+		return mappings;
+	}
+
+	/** Read the classpath from the given arguments onwards, exiting if any are missing */
+	private static Path[] readClasspath(String[] args, int from) {
+		Path[] classpath = Arrays.stream(args).skip(from).map(Paths::get).toArray(Path[]::new);
 		//Filter for all the non-readable paths which indicate missing files from the classpath
 		List<Path> missingClasspath = Arrays.stream(classpath).filter(((Predicate<Path>) Files::isReadable).negate()).collect(Collectors.toList());
 		if (!missingClasspath.isEmpty()) {
@@ -50,35 +686,21 @@ public class Main {
 			missingClasspath.forEach(System.out::println);
 			System.exit(5);
 		}
-		
-		//Read in the provided mappings blob
-		MappingBlob blob = MappingBlob.read(mappings.toFile());
-
-		TinyRemapper remapper = TinyRemapper.newRemapper().withMappings((classMap, fieldMap, methodMap) -> {
-			for (ClassMapping mapping : blob.mappings.values()) {
-				classMap.put(mapping.notchName, mapping.mcpName);
-
-				for (Entry<String, String> entry : mapping.methods.entrySet()) {
-					methodMap.put(mapping.notchName + '/' + entry.getKey(), mapping.mcpName + '/' + entry.getValue());
-				}
-
-				for (Entry<String, String> entry : mapping.fields.entrySet()) {
-					fieldMap.put(mapping.notchName + '/' + entry.getKey(), mapping.mcpName + '/' + entry.getValue());
-				}
-			}
-		}).build();
 
-		try (OutputConsumerPath out = new OutputConsumerPath(output)) {
-			out.addNonClassFiles(input);
+		return classpath;
+	}
 
-			remapper.read(classpath);
-			remapper.read(input);
+	/** Create a mapping provider for {@link TinyRemapper} which supplies every mapping from the given blob's {@link RemapperTables} */
+	static IMappingProvider createProvider(MappingBlob blob) {
+		return createProvider(blob.getRemapperTables());
+	}
 
-			remapper.apply(input, out);
-		} catch (IOException e) {
-			throw new UncheckedIOException("Error remapping jar!", e);
-		} finally {
-			remapper.finish();
-		}
+	/** Create a mapping provider for {@link TinyRemapper} which supplies every mapping from the given {@link RemapperTables} */
+	static IMappingProvider createProvider(RemapperTables tables) {
+		return (classMap, fieldMap, methodMap) -> {
+			classMap.putAll(tables.classes);
+			fieldMap.putAll(tables.fields);
+			methodMap.putAll(tables.methods);
+		};
 	}
-}
\ No newline at end of file
+}
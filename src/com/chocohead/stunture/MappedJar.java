@@ -0,0 +1,244 @@
+package com.chocohead.stunture;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * A memory mapped jar, whose central directory is read once into an index of where each class is.
+ * <p>
+ * Stored classes are copied straight out of the mapped file, and deflated ones are inflated straight out of it. Both go into buffers
+ * kept by each thread which are sized from the class's known length, so reading a class allocates nothing once a thread has warmed up.
+ *
+ * @author Chocohead
+ */
+final class MappedJar implements ClassSource {
+	/** Where a class is in the jar */
+	private static final class Entry {
+		final int method, compressedSize, size, headerOffset;
+		/** Where the class's data starts, found from its local header the first time it is read */
+		int dataOffset = -1;
+
+		Entry(int method, int compressedSize, int size, int headerOffset) {
+			this.method = method;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.headerOffset = headerOffset;
+		}
+	}
+
+	/** The buffers each thread reads classes with */
+	private static final class Buffers {
+		/** The largest buffer worth keeping around between classes */
+		private static final int KEEP_LIMIT = 1 << 20;
+		final Inflater inflater = new Inflater(true);
+		private byte[] input = new byte[8192], output = new byte[16384];
+
+		byte[] input(int length) {
+			if (input.length < length) input = new byte[Math.max(length, input.length * 2)];
+			return input;
+		}
+
+		byte[] output(int length) {
+			if (output.length < length) output = new byte[Math.max(length, output.length * 2)];
+			return output;
+		}
+
+		void trim() {
+			if (input.length > KEEP_LIMIT) input = new byte[8192];
+			if (output.length > KEEP_LIMIT) output = new byte[16384];
+		}
+	}
+	private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+	private final Path jar;
+	private final ByteBuffer buffer;
+	private final Map<String, Entry> classes;
+
+	private MappedJar(Path jar, ByteBuffer buffer) throws IOException {
+		this.jar = jar;
+		this.buffer = buffer;
+
+		int end = findEnd(buffer);
+		if (end < 0) throw new IOException("Unable to find end of central directory in " + jar);
+		long count = buffer.getShort(end + 10) & 0xFFFF;
+		long start = buffer.getInt(end + 16) & 0xFFFFFFFFL;
+
+		if (count == 0xFFFF || start == 0xFFFFFFFFL) {
+			//Possibly a Zip64 jar, in which case the real values are in the Zip64 end of central directory
+			int locator = end - 20;
+			if (locator >= 0 && buffer.getInt(locator) == 0x07064B50) {
+				long zip64End = buffer.getLong(locator + 8);
+				if (zip64End < 0 || zip64End > locator - 56 || buffer.getInt((int) zip64End) != 0x06064B50) throw new IOException("Invalid Zip64 end of central directory in " + jar);
+
+				count = buffer.getLong((int) zip64End + 32);
+				start = buffer.getLong((int) zip64End + 48);
+			}
+		}
+		if (start < 0 || start > end || count < 0 || count > end - start) throw new IOException("Invalid central directory in " + jar + ": " + count + " entries at " + start);
+
+		Map<String, Entry> classes = new HashMap<>((int) count * 4 / 3 + 1);
+		int offset = (int) start;
+		for (long i = 0; i < count; i++) {
+			if (offset > end - 46 || buffer.getInt(offset) != 0x02014B50) throw new IOException("Invalid central directory entry at " + offset + " in " + jar);
+
+			int method = buffer.getShort(offset + 10) & 0xFFFF;
+			long compressedSize = buffer.getInt(offset + 20) & 0xFFFFFFFFL;
+			long size = buffer.getInt(offset + 24) & 0xFFFFFFFFL;
+			int nameLength = buffer.getShort(offset + 28) & 0xFFFF;
+			int extraLength = buffer.getShort(offset + 30) & 0xFFFF;
+			int commentLength = buffer.getShort(offset + 32) & 0xFFFF;
+			long headerOffset = buffer.getInt(offset + 42) & 0xFFFFFFFFL;
+			String name = readName(buffer, offset + 46, nameLength);
+
+			//Only sizes or offsets which don't fit are in the Zip64 extended information, in a fixed order
+			int extra = offset + 46 + nameLength;
+			for (int extraEnd = extra + extraLength; extra + 4 <= extraEnd;) {
+				int id = buffer.getShort(extra) & 0xFFFF;
+				int length = buffer.getShort(extra + 2) & 0xFFFF;
+
+				if (id == 0x0001) {
+					int field = extra + 4;
+					if (size == 0xFFFFFFFFL) {
+						size = buffer.getLong(field);
+						field += 8;
+					}
+					if (compressedSize == 0xFFFFFFFFL) {
+						compressedSize = buffer.getLong(field);
+						field += 8;
+					}
+					if (headerOffset == 0xFFFFFFFFL) {
+						headerOffset = buffer.getLong(field);
+					}
+					break;
+				}
+
+				extra += 4 + length;
+			}
+			offset += 46 + nameLength + extraLength + commentLength;
+
+			if (name.endsWith("/") || !name.endsWith(".class")) continue;
+			if (size > Integer.MAX_VALUE - 8 || compressedSize > Integer.MAX_VALUE || headerOffset > end) throw new IOException("Class too large to read: " + name + " (" + size + " bytes)");
+			if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) throw new IOException("Unsupported compression method for " + name + ": " + method);
+
+			classes.putIfAbsent(name.substring(0, name.length() - 6), new Entry(method, (int) compressedSize, (int) size, (int) headerOffset));
+		}
+		this.classes = classes;
+	}
+
+	/**
+	 * Memory map and index the given jar
+	 *
+	 * @param jar The jar to map
+	 *
+	 * @return The mapped jar
+	 *
+	 * @throws IOException If there is an error mapping the jar, or it isn't a valid jar
+	 */
+	static MappedJar open(Path jar) throws IOException {
+		try (FileChannel channel = FileChannel.open(jar, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) throw new IOException("Jar too large to map: " + jar + " (" + channel.size() + " bytes)");
+
+			return new MappedJar(jar, channel.map(MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN));
+		}
+	}
+
+	/** Find the end of central directory record, which sits behind a comment of up to 64KB */
+	private static int findEnd(ByteBuffer buffer) {
+		int limit = Math.max(0, buffer.limit() - 22 - 0xFFFF);
+
+		for (int i = buffer.limit() - 22; i >= limit; i--) {
+			if (buffer.getInt(i) == 0x06054B50 && i + 22 + (buffer.getShort(i + 20) & 0xFFFF) == buffer.limit()) return i;
+		}
+
+		return -1;
+	}
+
+	private static String readName(ByteBuffer buffer, int offset, int length) {
+		byte[] name = new byte[length];
+		ByteBuffer slice = buffer.duplicate();
+		slice.position(offset);
+		slice.get(name);
+		return new String(name, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public Collection<String> getClassNames() {
+		return Collections.unmodifiableSet(classes.keySet());
+	}
+
+	@Override
+	public <T> T readClass(String name, ClassReader<T> reader) throws IOException {
+		Entry entry = classes.get(name);
+		if (entry == null) return null;
+
+		int dataOffset = entry.dataOffset;
+		if (dataOffset < 0) {
+			//Racing threads will find the same offset, so it doesn't matter if this is done more than once
+			int header = entry.headerOffset;
+			if (header > buffer.limit() - 30 || buffer.getInt(header) != 0x04034B50) throw new IOException("Invalid local header for " + name + " in " + jar);
+			entry.dataOffset = dataOffset = header + 30 + (buffer.getShort(header + 26) & 0xFFFF) + (buffer.getShort(header + 28) & 0xFFFF);
+		}
+		if ((long) dataOffset + entry.compressedSize > buffer.limit()) throw new IOException("Data for " + name + " overruns " + jar);
+
+		Buffers buffers = BUFFERS.get();
+		try {
+			ByteBuffer data = buffer.duplicate();
+			data.position(dataOffset);
+
+			byte[] out = buffers.output(entry.size);
+			if (entry.method == ZipEntry.STORED) {
+				if (entry.compressedSize != entry.size) throw new IOException("Stored entry " + name + " has mismatched sizes: " + entry.compressedSize + " vs " + entry.size);
+				data.get(out, 0, entry.size);
+			} else {
+				//Inflating without the zlib wrapper needs an extra byte of input at the end
+				byte[] in = buffers.input(entry.compressedSize + 1);
+				data.get(in, 0, entry.compressedSize);
+				in[entry.compressedSize] = 0;
+
+				Inflater inflater = buffers.inflater;
+				inflater.reset();
+				inflater.setInput(in, 0, entry.compressedSize + 1);
+
+				int length = 0;
+				try {
+					while (length < entry.size) {
+						int inflated = inflater.inflate(out, length, entry.size - length);
+						if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) break;
+						length += inflated;
+					}
+				} catch (DataFormatException e) {
+					throw new IOException("Error inflating " + name + " in " + jar, e);
+				}
+
+				if (length != entry.size) throw new IOException("Inflated " + name + " to " + length + " bytes rather than " + entry.size);
+			}
+
+			return reader.read(out, 0, entry.size);
+		} finally {
+			buffers.trim();
+		}
+	}
+
+	@Override
+	public void close() {
+		//The mapping goes once the buffer is garbage collected, so there's nothing to do until then
+	}
+
+	@Override
+	public String toString() {
+		return jar.toString();
+	}
+}
@@ -0,0 +1,220 @@
+package com.chocohead.stunture;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import com.chocohead.rift.ClassMapping;
+import com.chocohead.rift.MappingBlob;
+
+/**
+ * A content addressed cache of built {@link MappingBlob}s, keyed by the hashes of the files used to build them.
+ * <p>
+ * Alongside the complete blobs the {@link SrgMappings} from the SRG, constructors and vanilla jar are kept too,
+ * so changing only the MCP <code>methods.csv</code> and <code>fields.csv</code> skips straight to mushing in the new names.
+ *
+ * @author Chocohead
+ */
+public class MappingCache {
+	private final Path srgCache, blobCache;
+	private final Executor executor;
+
+	public MappingCache(Path directory) {
+		this(directory, ForkJoinPool.commonPool());
+	}
+
+	/** Create a cache in the given directory which builds any missing mappings on the given executor */
+	public MappingCache(Path directory, Executor executor) {
+		srgCache = directory.resolve("srg");
+		blobCache = directory.resolve("mappings");
+		this.executor = executor;
+	}
+
+	/**
+	 * Get the mappings for the given SRG and MCP names, and the given (obfuscated) Minecraft jar, building them only if they're not already cached
+	 *
+	 * @param srgs A <code>joined.srg</code> file
+	 * @param constructors A <code>constructors.txt</code> file
+	 * @param methods An MCP <code>methods.csv</code> file
+	 * @param fields An MCP <code>fields.csv</code> file
+	 * @param minecraft An obfuscated Minecraft jar
+	 *
+	 * @return The cached or produced {@link MappingBlob}
+	 */
+	public MappingBlob load(File srgs, File constructors, File methods, File fields, File minecraft) {
+		Metrics metrics = new Metrics("build");
+
+		try {
+			return load(srgs, constructors, methods, fields, minecraft, metrics);
+		} finally {
+			metrics.finish();
+		}
+	}
+
+	/**
+	 * Get the mappings for the given SRG and MCP names, and the given (obfuscated) Minecraft jar, building them only if they're not already cached
+	 *
+	 * @param srgs A <code>joined.srg</code> file
+	 * @param constructors A <code>constructors.txt</code> file
+	 * @param methods An MCP <code>methods.csv</code> file
+	 * @param fields An MCP <code>fields.csv</code> file
+	 * @param minecraft An obfuscated Minecraft jar
+	 * @param metrics The metrics to record each phase in, which is left for the caller to {@link Metrics#finish() finish}
+	 *
+	 * @return The cached or produced {@link MappingBlob}
+	 */
+	public MappingBlob load(File srgs, File constructors, File methods, File fields, File minecraft, Metrics metrics) {
+		String srgKey = Hashing.hash(Hashing.hash(srgs.toPath()), Hashing.hash(constructors.toPath()), Hashing.hash(minecraft.toPath()));
+		String blobKey = Hashing.hash(srgKey, Hashing.hash(methods.toPath()), Hashing.hash(fields.toPath()));
+
+		Path blobFile = blobCache.resolve(blobKey + ".blob");
+		if (Files.isRegularFile(blobFile)) {
+			try (Metrics.Phase phase = metrics.start("read-cached-mappings")) {
+				MappingBlob blob = MappingBlob.map(blobFile.toFile());
+				phase.count("bytes", blobFile.toFile().length()).count("classes", blob.mappings.size());
+				return blob;
+			} catch (RuntimeException e) {
+				System.err.println("Discarding unreadable cached mappings " + blobFile + ": " + e);
+			}
+		}
+
+		try {
+			CompletableFuture<Map<String, String>> methodTask = CompletableFuture.supplyAsync(() -> MappingsLoader.mcpTask(() -> new FileReader(methods), metrics, "mcp-methods"), executor);
+			CompletableFuture<Map<String, String>> fieldTask = CompletableFuture.supplyAsync(() -> MappingsLoader.mcpTask(() -> new FileReader(fields), metrics, "mcp-fields"), executor);
+
+			SrgMappings cached;
+			try (Metrics.Phase phase = metrics.start("read-cached-srg")) {
+				cached = readSrg(srgKey);
+				if (cached != null) phase.count("classes", cached.classes.size());
+			}
+
+			CompletableFuture<SrgMappings> srgTask;
+			if (cached != null) {
+				srgTask = CompletableFuture.completedFuture(cached);
+			} else {
+				//The SRG mappings have to be written before they're mushed into, which is why it isn't done asynchronously
+				srgTask = MappingsLoader.prepare(() -> new FileReader(srgs), () -> new FileReader(constructors), () -> ClassSource.map(minecraft.toPath()), executor, metrics).thenApply(srg -> {
+					try (Metrics.Phase phase = metrics.start("write-cached-srg")) {
+						writeSrg(srgKey, srg);
+						phase.count("classes", srg.classes.size());
+					}
+
+					return srg;
+				});
+			}
+
+			Map<String, ClassMapping> mappings = MappingsLoader.complete(srgTask, methodTask, fieldTask, executor, metrics).get();
+			MappingBlob blob;
+			try (Metrics.Phase phase = metrics.start("freeze")) {
+				blob = new MappingBlob(mappings);
+				phase.count("classes", blob.mappings.size());
+			}
+
+			try (Metrics.Phase phase = metrics.start("write-cached-mappings")) {
+				write(blobFile, out -> blob.write(out.toFile()));
+				phase.count("bytes", blobFile.toFile().length());
+			}
+			return blob;
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Unexpected error loading mappings!", e);
+		} catch (InterruptedException e) {
+			throw new IllegalStateException("Interrupted whilst loaded mappings?", e);
+		}
+	}
+
+	private SrgMappings readSrg(String key) {
+		Path mappings = srgCache.resolve(key + ".blob");
+		Path hierarchy = srgCache.resolve(key + ".hierarchy");
+		if (!Files.isRegularFile(mappings) || !Files.isRegularFile(hierarchy)) return null;
+
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(hierarchy))) {
+			Map<String, ClassMapping> classes = new HashMap<>();
+			for (ClassMapping mapping : MappingBlob.read(mappings.toFile()).mappings.values()) {
+				classes.put(mapping.notchName, new ClassMapping(mapping)); //The mappings have to be thawed to mush the MCP names in
+			}
+			SrgMappings srg = new SrgMappings(classes);
+
+			for (int i = in.readInt(); i > 0; i--) {
+				srg.superclasses.put(in.readUTF(), in.readUTF());
+			}
+
+			for (int i = in.readInt(); i > 0; i--) {
+				String name = in.readUTF();
+
+				List<String> interfaces = new ArrayList<>();
+				for (int j = in.readInt(); j > 0; j--) {
+					interfaces.add(in.readUTF());
+				}
+
+				srg.interfaces.put(name, interfaces);
+			}
+
+			return srg;
+		} catch (IOException | RuntimeException e) {
+			System.err.println("Discarding unreadable cached SRG mappings " + mappings + ": " + e);
+			return null;
+		}
+	}
+
+	private void writeSrg(String key, SrgMappings srg) {
+		write(srgCache.resolve(key + ".blob"), out -> new MappingBlob(srg.classes).write(out.toFile()));
+		write(srgCache.resolve(key + ".hierarchy"), out -> {
+			try (DataOutputStream data = new DataOutputStream(Files.newOutputStream(out))) {
+				data.writeInt(srg.superclasses.size());
+				for (Entry<String, String> entry : srg.superclasses.entrySet()) {
+					data.writeUTF(entry.getKey());
+					data.writeUTF(entry.getValue());
+				}
+
+				data.writeInt(srg.interfaces.size());
+				for (Entry<String, List<String>> entry : srg.interfaces.entrySet()) {
+					data.writeUTF(entry.getKey());
+					data.writeInt(entry.getValue().size());
+					for (String type : entry.getValue()) {
+						data.writeUTF(type);
+					}
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException("Error writing cached hierarchy", e);
+			}
+		});
+	}
+
+	@FunctionalInterface
+	private interface Writer {
+		void write(Path to);
+	}
+
+	/** Write to a temporary file which is then moved into place, so a partially written file is never left in the cache */
+	private static void write(Path to, Writer writer) {
+		try {
+			Files.createDirectories(to.getParent());
+			Path temp = Files.createTempFile(to.getParent(), to.getFileName().toString(), ".tmp");
+
+			try {
+				writer.write(temp);
+				Files.move(temp, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		} catch (IOException | RuntimeException e) {
+			//Failing to cache shouldn't stop the mappings being used
+			System.err.println("Unable to cache " + to + ": " + e);
+		}
+	}
+}
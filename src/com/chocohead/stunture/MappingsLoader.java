@@ -2,35 +2,32 @@ package com.chocohead.stunture;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.Reader;
 import java.io.UncheckedIOException;
 import java.nio.file.Path;
-import java.util.ArrayDeque;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Queue;
-import java.util.Set;
-import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.jar.JarEntry;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.jar.JarFile;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
 
-import org.objectweb.asm.ClassReader;
-
 import com.chocohead.rift.ClassMapping;
+import com.chocohead.rift.DescriptorRemapper;
 import com.chocohead.rift.MappingBlob;
 
 /**
@@ -39,17 +36,61 @@ import com.chocohead.rift.MappingBlob;
  * @author Chocohead
  */
 public class MappingsLoader {
+	/** The fewest classes or lines worth giving their own task when working on every class at once */
+	private static final int CHUNK_SIZE = 256;
+
 	private static class Party {
-		public final Set<ClassMapping> parents = new HashSet<>();
-		public final Set<ClassMapping> children = new HashSet<>();
+		public Party superclass;
+		/** The mapped interfaces in declaration order */
+		public final List<Party> interfaces = new ArrayList<>();
+		public final List<Party> children = new ArrayList<>();
 		public final ClassMapping mapping;
+		/** The number of parents which are yet to have inherited from their own parents */
+		int waitingParents;
 
 		public Party(ClassMapping mapping) {
 			this.mapping = mapping;
 		}
 
 		public boolean isRoot() {
-			return parents.isEmpty();
+			return superclass == null && interfaces.isEmpty();
+		}
+
+		public void setSuperclass(Party parent) {
+			superclass = parent;
+			parent.children.add(this);
+			waitingParents++;
+		}
+
+		public void addInterface(Party parent) {
+			interfaces.add(parent);
+			parent.children.add(this);
+			waitingParents++;
+		}
+
+		/**
+		 * Inherit any methods and fields not already in the mapping from each parent in turn.
+		 * Where parents clash the order follows the JVM's resolution: the superclass before interfaces for methods, the reverse for fields.
+		 */
+		public void inherit() {
+			if (superclass != null) inheritMethods(superclass);
+			for (Party parent : interfaces) {
+				inheritMethods(parent);
+				inheritFields(parent);
+			}
+			if (superclass != null) inheritFields(superclass);
+		}
+
+		private void inheritMethods(Party parent) {
+			for (Entry<String, String> entry : parent.mapping.methods.entrySet()) {
+				mapping.methods.putIfAbsent(entry.getKey(), entry.getValue());
+			}
+		}
+
+		private void inheritFields(Party parent) {
+			for (Entry<String, String> entry : parent.mapping.fields.entrySet()) {
+				mapping.fields.putIfAbsent(entry.getKey(), entry.getValue());
+			}
 		}
 	}
 
@@ -63,9 +104,8 @@ public class MappingsLoader {
 	 * @return The saved {@link MappingBlob}
 	 */
 	public static MappingBlob saveDefault(String mcVersion, String mcpVersion, Path to) {
-		Map<String, ClassMapping> mappings = loadDefault(mcVersion, mcpVersion);
+		MappingBlob blob = loadDefaultBlob(mcVersion, mcpVersion);
 
-		MappingBlob blob = new MappingBlob(mappings);
 		blob.write(to.toFile());
 		return blob;
 	}
@@ -76,9 +116,28 @@ public class MappingsLoader {
 	 * @param mcVersion The Minecraft version to use Notch names from
 	 * @param mcpVersion The MCP mappings to get MCP names from
 	 * 
-	 * @return The produced mappings, from Notch name to {@link ClassMapping}
+	 * @return The produced mappings, from Notch name to {@link ClassMapping}, each of which is a mutable copy of the frozen cached one
 	 */
 	public static Map<String, ClassMapping> loadDefault(String mcVersion, String mcpVersion) {
+		Map<String, ClassMapping> mappings = loadDefaultBlob(mcVersion, mcpVersion).mappings;
+
+		//Callers of this have always been free to modify what they're given, which the frozen mappings from the cache don't allow
+		Map<String, ClassMapping> out = new HashMap<>(mappings.size() * 4 / 3 + 1);
+		for (Entry<String, ClassMapping> entry : mappings.entrySet()) {
+			out.put(entry.getKey(), new ClassMapping(entry.getValue()));
+		}
+		return out;
+	}
+
+	/**
+	 * Create mappings for the given Minecraft version and MCP mappings, reusing as much as possible from the {@link MappingCache} in the Minecraft Gradle cache
+	 * 
+	 * @param mcVersion The Minecraft version to use Notch names from
+	 * @param mcpVersion The MCP mappings to get MCP names from
+	 * 
+	 * @return The produced {@link MappingBlob}
+	 */
+	private static MappingBlob loadDefaultBlob(String mcVersion, String mcpVersion) {
 		File gradleCache = new File(System.getProperty("user.home") + "/.gradle/caches/minecraft");
 		if (!gradleCache.isDirectory()) {
 			throw new RuntimeException("Unable to find Minecraft Gradle cache (have you run setupDecompWorkspace?)");
@@ -110,12 +169,30 @@ public class MappingsLoader {
 			throw new RuntimeException("Unable to find MCP fields for " + mcpVersion);
 		}
 
+		return new MappingCache(new File(gradleCache, "stunture").toPath()).load(srg, constructors, methods, fields, minecraft);
+	}
+
+	/**
+	 * Create mappings for the given SRG and MCP names, and the given (obfuscated) Minecraft jar
+	 * 
+	 * @param srgs A supplier of a {@link Reader} for a <code>joined.srg</code> file
+	 * @param constructors A supplier of a {@link Reader} for a <code>constructors.txt</code> file
+	 * @param methodFile A supplier of a {@link Reader} for an MCP <code>methods.csv</code> file
+	 * @param fieldFile A supplier of a {@link Reader} for an MCP <code>fields.csv</code> file
+	 * @param minecraft The location of an obfuscated Minecraft jar
+	 * 
+	 * @return The produced mappings, from Notch name to {@link ClassMapping}
+	 * 
+	 * @throws ExecutionException If an unexpected error occurs whilst computing the mappings
+	 * @throws InterruptedException If an interrupt is raised during the computation of mappings 
+	 */
+	public static Map<String, ClassMapping> load(MappingSupplier<Reader> srgs, MappingSupplier<Reader> constructors, MappingSupplier<Reader> methodFile, MappingSupplier<Reader> fieldFile, Path minecraft) throws ExecutionException, InterruptedException {
+		Metrics metrics = new Metrics("build");
+
 		try {
-			return load(() -> new FileReader(srg), () -> new FileReader(constructors), () -> new FileReader(methods), () -> new FileReader(fields), () -> new JarFile(minecraft));
-		} catch (ExecutionException e) {
-			throw new RuntimeException("Unexpected error loading mappings!", e);
-		} catch (InterruptedException e) {
-			throw new IllegalStateException("Interrupted whilst loaded mappings?", e);
+			return load(srgs, constructors, methodFile, fieldFile, minecraft, metrics);
+		} finally {
+			metrics.finish();
 		}
 	}
 
@@ -132,276 +209,519 @@ public class MappingsLoader {
 	 * 
 	 * @throws ExecutionException If an unexpected error occurs whilst computing the mappings
 	 * @throws InterruptedException If an interrupt is raised during the computation of mappings 
+	 *
+	 * @deprecated The jar is only opened to find where it is, use {@link #load(MappingSupplier, MappingSupplier, MappingSupplier, MappingSupplier, Path)} instead
 	 */
+	@Deprecated
 	public static Map<String, ClassMapping> load(MappingSupplier<Reader> srgs, MappingSupplier<Reader> constructors, MappingSupplier<Reader> methodFile, MappingSupplier<Reader> fieldFile, MappingSupplier<JarFile> minecraft) throws ExecutionException, InterruptedException {
-		ExecutorService executor = Executors.newFixedThreadPool(3);
-
-		Future<Map<String, ClassMapping>> srgTask = executor.submit(() -> {
-			try (BufferedReader contents = new BufferedReader(srgs.get())) {
-				Map<String, ClassMapping> classes = new HashMap<>();
-
-				for (String line = contents.readLine(); line != null; line = contents.readLine()) {
-					if (line.isEmpty() || line.startsWith("#")) continue;
+		Metrics metrics = new Metrics("build");
 
-					String type = line.substring(0, 2);
-					String[] args = line.substring(4).split(" ");
+		try {
+			return load(srgs, constructors, methodFile, fieldFile, minecraft, metrics);
+		} finally {
+			metrics.finish();
+		}
+	}
 
-					switch (type) {
-					case "PK":
-						break; //We don't care about packages
+	/**
+	 * Create mappings for the given SRG and MCP names, and the given (obfuscated) Minecraft jar, recording each phase in the given {@link Metrics}
+	 * 
+	 * @param srgs A supplier of a {@link Reader} for a <code>joined.srg</code> file
+	 * @param constructors A supplier of a {@link Reader} for a <code>constructors.txt</code> file
+	 * @param methodFile A supplier of a {@link Reader} for an MCP <code>methods.csv</code> file
+	 * @param fieldFile A supplier of a {@link Reader} for an MCP <code>fields.csv</code> file
+	 * @param minecraft The location of an obfuscated Minecraft jar
+	 * @param metrics The metrics to record each phase in, which is left for the caller to {@link Metrics#finish() finish}
+	 * 
+	 * @return The produced mappings, from Notch name to {@link ClassMapping}
+	 * 
+	 * @throws ExecutionException If an unexpected error occurs whilst computing the mappings
+	 * @throws InterruptedException If an interrupt is raised during the computation of mappings 
+	 */
+	public static Map<String, ClassMapping> load(MappingSupplier<Reader> srgs, MappingSupplier<Reader> constructors, MappingSupplier<Reader> methodFile, MappingSupplier<Reader> fieldFile, Path minecraft, Metrics metrics) throws ExecutionException, InterruptedException {
+		return loadAsync(srgs, constructors, methodFile, fieldFile, minecraft, ForkJoinPool.commonPool(), metrics).get();
+	}
 
-					case "CL":
-						classes.put(args[0], new ClassMapping(args[0], args[1]));
-						break;
+	/**
+	 * Create mappings for the given SRG and MCP names, and the given (obfuscated) Minecraft jar, recording each phase in the given {@link Metrics}
+	 * 
+	 * @param srgs A supplier of a {@link Reader} for a <code>joined.srg</code> file
+	 * @param constructors A supplier of a {@link Reader} for a <code>constructors.txt</code> file
+	 * @param methodFile A supplier of a {@link Reader} for an MCP <code>methods.csv</code> file
+	 * @param fieldFile A supplier of a {@link Reader} for an MCP <code>fields.csv</code> file
+	 * @param minecraft A supplier of a {@link JarFile} for an obfuscated Minecraft jar
+	 * @param metrics The metrics to record each phase in, which is left for the caller to {@link Metrics#finish() finish}
+	 * 
+	 * @return The produced mappings, from Notch name to {@link ClassMapping}
+	 * 
+	 * @throws ExecutionException If an unexpected error occurs whilst computing the mappings
+	 * @throws InterruptedException If an interrupt is raised during the computation of mappings 
+	 *
+	 * @deprecated The jar is only opened to find where it is, use {@link #load(MappingSupplier, MappingSupplier, MappingSupplier, MappingSupplier, Path, Metrics)} instead
+	 */
+	@Deprecated
+	public static Map<String, ClassMapping> load(MappingSupplier<Reader> srgs, MappingSupplier<Reader> constructors, MappingSupplier<Reader> methodFile, MappingSupplier<Reader> fieldFile, MappingSupplier<JarFile> minecraft, Metrics metrics) throws ExecutionException, InterruptedException {
+		return loadAsync(srgs, constructors, methodFile, fieldFile, minecraft, ForkJoinPool.commonPool(), metrics).get();
+	}
 
-					case "FD": {
-						String obf = args[0];
-						String srg = args[1];
+	/**
+	 * Create mappings for the given SRG and MCP names, and the given (obfuscated) Minecraft jar, without blocking.
+	 * <p>
+	 * The SRG, constructors, MCP names and jar are all read at once, with each later stage starting as soon as the stages it needs are done.
+	 * No task ever blocks waiting on another, so the executor's threads are only ever busy doing work.
+	 * 
+	 * @param srgs A supplier of a {@link Reader} for a <code>joined.srg</code> file
+	 * @param constructors A supplier of a {@link Reader} for a <code>constructors.txt</code> file
+	 * @param methodFile A supplier of a {@link Reader} for an MCP <code>methods.csv</code> file
+	 * @param fieldFile A supplier of a {@link Reader} for an MCP <code>fields.csv</code> file
+	 * @param minecraft The location of an obfuscated Minecraft jar, which is memory mapped rather than read through a {@link JarFile}
+	 * @param executor The executor to run each stage on, such as {@link ForkJoinPool#commonPool()}
+	 * @param metrics The metrics to record each phase in, which is left for the caller to {@link Metrics#finish() finish}
+	 * 
+	 * @return A future of the produced mappings, from Notch name to {@link ClassMapping}
+	 */
+	public static CompletableFuture<Map<String, ClassMapping>> loadAsync(MappingSupplier<Reader> srgs, MappingSupplier<Reader> constructors, MappingSupplier<Reader> methodFile, MappingSupplier<Reader> fieldFile, Path minecraft, Executor executor, Metrics metrics) {
+		return start(srgs, constructors, methodFile, fieldFile, () -> ClassSource.map(minecraft), executor, metrics);
+	}
 
-						int end = obf.lastIndexOf('/');
-						String owner = obf.substring(0, end++);
-						String field = obf.substring(end);
+	/**
+	 * Create mappings for the given SRG and MCP names, and the given (obfuscated) Minecraft jar, without blocking.
+	 * 
+	 * @param srgs A supplier of a {@link Reader} for a <code>joined.srg</code> file
+	 * @param constructors A supplier of a {@link Reader} for a <code>constructors.txt</code> file
+	 * @param methodFile A supplier of a {@link Reader} for an MCP <code>methods.csv</code> file
+	 * @param fieldFile A supplier of a {@link Reader} for an MCP <code>fields.csv</code> file
+	 * @param minecraft A supplier of a {@link JarFile} for an obfuscated Minecraft jar
+	 * @param executor The executor to run each stage on, such as {@link ForkJoinPool#commonPool()}
+	 * @param metrics The metrics to record each phase in, which is left for the caller to {@link Metrics#finish() finish}
+	 * 
+	 * @return A future of the produced mappings, from Notch name to {@link ClassMapping}
+	 *
+	 * @deprecated The jar is only opened to find where it is, use {@link #loadAsync(MappingSupplier, MappingSupplier, MappingSupplier, MappingSupplier, Path, Executor, Metrics)} instead
+	 */
+	@Deprecated
+	public static CompletableFuture<Map<String, ClassMapping>> loadAsync(MappingSupplier<Reader> srgs, MappingSupplier<Reader> constructors, MappingSupplier<Reader> methodFile, MappingSupplier<Reader> fieldFile, MappingSupplier<JarFile> minecraft, Executor executor, Metrics metrics) {
+		return start(srgs, constructors, methodFile, fieldFile, () -> mapJar(minecraft), executor, metrics);
+	}
 
-						if (classes.get(owner).fields.put(srg.substring(srg.lastIndexOf('/') + 1), field) != null) {
-							throw new IllegalStateException("Duplicate field mappings for " + field + " in " + classes.get(owner).mcpName);
-						}
-						break;
-					}
+	/** Map the jar the given supplier opens as a {@link ClassSource}, rather than reading it through the {@link JarFile} */
+	private static ClassSource mapJar(MappingSupplier<JarFile> minecraft) throws IOException {
+		try (JarFile jar = minecraft.get()) {
+			return ClassSource.map(Paths.get(jar.getName()));
+		}
+	}
 
-					case "MD": {
-						String obf = args[0];
-						String srg = args[2];
+	/** Start every stage of creating mappings at once, for {@link #loadAsync(MappingSupplier, MappingSupplier, MappingSupplier, MappingSupplier, Path, Executor, Metrics)} */
+	private static CompletableFuture<Map<String, ClassMapping>> start(MappingSupplier<Reader> srgs, MappingSupplier<Reader> constructors, MappingSupplier<Reader> methodFile, MappingSupplier<Reader> fieldFile, MappingSupplier<? extends ClassSource> minecraft, Executor executor, Metrics metrics) {
+		CompletableFuture<Map<String, String>> methodTask = CompletableFuture.supplyAsync(() -> mcpTask(methodFile, metrics, "mcp-methods"), executor);
+		CompletableFuture<Map<String, String>> fieldTask = CompletableFuture.supplyAsync(() -> mcpTask(fieldFile, metrics, "mcp-fields"), executor);
 
-						int end = obf.lastIndexOf('/');
-						String owner = obf.substring(0, end++);
-						String method = obf.substring(end);
+		return complete(prepare(srgs, constructors, minecraft, executor, metrics), methodTask, fieldTask, executor, metrics);
+	}
+	/**
+	 * Produce the SRG named mappings for the given SRG names, and the given (obfuscated) Minecraft jar
+	 * 
+	 * @param srgs A supplier of a {@link Reader} for a <code>joined.srg</code> file
+	 * @param constructors A supplier of a {@link Reader} for a <code>constructors.txt</code> file
+	 * @param minecraft A supplier of a {@link JarFile} for an obfuscated Minecraft jar
+	 * @param executor The executor to run each stage on
+	 * @param metrics The metrics to record each phase in
+	 * 
+	 * @return A future of the produced {@link SrgMappings}
+	 */
+	static CompletableFuture<SrgMappings> prepare(MappingSupplier<Reader> srgs, MappingSupplier<Reader> constructors, MappingSupplier<? extends ClassSource> minecraft, Executor executor, Metrics metrics) {
+		CompletableFuture<SrgMappings> srgTask = CompletableFuture.supplyAsync(() -> {
+			try (Metrics.Phase phase = metrics.start("srg")) {
+				SrgMappings srg = srgTask(phase.countCharacters(srgs));
+
+				long methods = 0, fields = 0;
+				for (ClassMapping mapping : srg.classes.values()) {
+					methods += mapping.methods.size();
+				}
+				for (List<String> undescribed : srg.undescribedFields.values()) {
+					fields += undescribed.size() / 2;
+				}
+				phase.count("classes", srg.classes.size()).count("methods", methods).count("fields", fields);
 
-						String srged = srg.substring(srg.lastIndexOf('/') + 1);
-						if (method.equals(srged)) continue; //Skip methods which don't change name
+				return srg;
+			}
+		}, executor);
+		CompletableFuture<Map<String, ClassFisher>> jarTask = inPhase(metrics, "jar", phase -> CompletableFuture.supplyAsync(() -> {
+			try {
+				return minecraft.get();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Error getting vanilla jar", e);
+			}
+		}, executor).thenCompose(jar -> fishClasses(jar, executor, phase).whenComplete((fishers, t) -> {
+			try {
+				jar.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Error closing vanilla jar", e);
+			}
+		})));
+		//The constructors can be read whilst the SRG is, they just can't be matched up to classes until it's done
+		CompletableFuture<List<String[]>> constructorTask = CompletableFuture.supplyAsync(() -> {
+			try (Metrics.Phase phase = metrics.start("constructors"); BufferedReader contents = new BufferedReader(phase.countCharacters(constructors).get())) {
+				List<String[]> lines = new ArrayList<>();
 
-						String old = classes.get(owner).methods.put(method + args[1], srged);
-						if (old != null) {
-							throw new IllegalStateException("Duplicate field mappings for " + method + args[1] + " in " + classes.get(owner).mcpName + ": " + old + " => " + srged);
-						}
-						break;
-					}
+				for (String line = contents.readLine(); line != null; line = contents.readLine()) {
+					if (line.startsWith("#")) continue;
+					String[] parts = line.split(" ");
 
-					default:
-						throw new RuntimeException("Unexpected line type: " + type + " from " + line);
-					}
+					if (parts.length != 3)
+						throw new IllegalStateException("Unexpected constructor line length: " + Arrays.toString(parts) + " from " + line);
+					lines.add(parts);
 				}
 
-				return classes;
+				phase.count("constructors", lines.size());
+				return lines;
 			} catch (IOException e) {
-				throw new RuntimeException("Error processing SRG mappings", e);
+				throw new RuntimeException("Error processing constructors", e);
 			}
-		});
-		Future<Map<String, String>> methodTask = executor.submit(() -> mcpTask(methodFile));
-		Future<Map<String, String>> fieldTask = executor.submit(() -> mcpTask(fieldFile));
+		}, executor);
+
+		CompletableFuture<Void> constructorMatching = srgTask.thenCombine(constructorTask, (srg, lines) -> inPhase(metrics, "match-constructors", phase -> {
+			Map<String, ClassMapping> backwardsSrg = srg.classes.values().stream().collect(Collectors.toMap(mapping -> mapping.mcpName, Function.identity()));
+			DescriptorRemapper remapper = new DescriptorRemapper(name -> {
+				ClassMapping type = backwardsSrg.get(name); //This will miss for non-Notch types
+				return type != null ? type.notchName : null;
+			});
+
+			return forEachChunk(lines, executor, parts -> {
+				ClassMapping mapping = backwardsSrg.get(parts[1]);
+				if (mapping == null) {
+					//System.err.println("Unable to find " + parts[1] + " for constructor");
+					return 0; //Anonymous classes will often not have mappings
+				}
 
-		JarFile jar;
-		try {
-			jar = minecraft.get();
-		} catch (IOException e) {
-			throw new RuntimeException("Error getting vanilla jar", e);
-		}
+				String constructor = "<init> ".concat(remapper.mapDescriptor(parts[2]));
+				synchronized (mapping.constructors) {
+					mapping.constructors.add(constructor);
+				}
+				return 1;
+			}).thenAccept(count -> phase.count("constructors", count));
+		})).thenCompose(task -> task);
+
+		//Only the constructor sets and field maps are changed, so describing and constructor matching don't get in each other's way
+		CompletableFuture<SrgMappings> describing = srgTask.thenCombine(jarTask, (srg, vanilla) -> inPhase(metrics, "describe", phase -> {
+			return forEachChunk(srg.classes.values(), executor, mapping -> {
+				ClassFisher fisher = vanilla.get(mapping.notchName);
+				if (fisher == null) throw new IllegalStateException("Unable to find vanilla class: " + mapping.notchName + " (" + mapping.mcpName + ')');
+
+				List<String> fields = srg.undescribedFields.get(mapping.notchName);
+				if (fields != null) {
+					for (int i = 0; i < fields.size(); i += 2) {
+						String notch = fields.get(i);
+						String srgX = fields.get(i + 1);
+
+						String desc = fisher.fields.get(notch);
+						if (desc == null) throw new IllegalStateException("Unable to find description for " + mapping.notchName + '/' + notch + " (" + mapping.mcpName + '/' + srgX + ')');
+						if (mapping.fields.put(notch + ";;" + desc, srgX) != null) {
+							throw new IllegalStateException("Duplicate field mappings for " + notch + " in " + mapping.mcpName);
+						}
+					}
+				}
 
-		Map<String, ClassMapping> srg = srgTask.get();
-		Future<?> constructorTask = executor.submit(() -> {
-			try (BufferedReader contents = new BufferedReader(srgs.get())) {
-				Map<String, ClassMapping> backwardsSrg = srg.entrySet().parallelStream().collect(Collectors.toMap(mapping -> mapping.getValue().mcpName, Entry::getValue));
-				Pattern classFinder = Pattern.compile("L([^;]+);");
+				if (srg.classes.containsKey(fisher.superName)) {
+					srg.superclasses.put(mapping.notchName, fisher.superName);
+				}
 
-				for (String line = contents.readLine(); line != null; line = contents.readLine()) {
-					if (line.startsWith("#")) continue;
-	                String[] parts = line.split(" ");
+				List<String> interfaces = fisher.interfaces.stream().filter(srg.classes::containsKey).collect(Collectors.toList());
+				if (!interfaces.isEmpty()) srg.interfaces.put(mapping.notchName, interfaces);
 
-	                if (parts.length != 3)
-	                	throw new IllegalStateException("Unexpected constructor line length: " + Arrays.toString(parts) + " from " + line);
+				return mapping.fields.size();
+			}).thenApply(fields -> {
+				srg.undescribedFields.clear();
+				phase.count("classes", srg.classes.size()).count("fields", fields);
+				return srg;
+			});
+		})).thenCompose(task -> task);
 
-	                ClassMapping mapping = backwardsSrg.get(parts[1]);
-	                if (mapping == null) {
-	                	//System.err.println("Unable to find " + parts[1] + " for constructor");
-	                	continue; //Anonymous classes will often not have mappings
-	                }
+		return describing.thenCombine(constructorMatching, (out, nothing) -> out);
+	}
 
-					String desc = parts[2];
-					StringBuffer buf = new StringBuffer("<init> ");
+	/**
+	 * Mush the given MCP names into the given SRG named mappings, then propagate them down the class hierarchy
+	 * 
+	 * @param srgTask The SRG named mappings to mush into, which are modified in place
+	 * @param methodTask The MCP method names, from SRG name to MCP name
+	 * @param fieldTask The MCP field names, from SRG name to MCP name
+	 * @param executor The executor to run each stage on
+	 * @param metrics The metrics to record each phase in
+	 * 
+	 * @return A future of the produced mappings, from Notch name to {@link ClassMapping}
+	 */
+	static CompletableFuture<Map<String, ClassMapping>> complete(CompletionStage<SrgMappings> srgTask, CompletionStage<Map<String, String>> methodTask, CompletionStage<Map<String, String>> fieldTask, Executor executor, Metrics metrics) {
+		CompletableFuture<Long> fieldMushing = srgTask.thenCombine(fieldTask, (srg, fields) -> inPhase(metrics, "mush-fields", phase -> forEachChunk(srg.classes.values(), executor, mapping -> {
+			mapping.fields.replaceAll((notch, srgX) -> fields.getOrDefault(srgX, srgX));
+			return mapping.fields.size();
+		}).thenApply(count -> {
+			phase.count("fields", count);
+			return count;
+		}))).thenCompose(task -> task).toCompletableFuture();
+		CompletableFuture<Long> methodMushing = srgTask.thenCombine(methodTask, (srg, methods) -> inPhase(metrics, "mush-methods", phase -> forEachChunk(srg.classes.values(), executor, mapping -> {
+			mapping.methods.replaceAll((notch, srgX) -> methods.getOrDefault(srgX, srgX));
+			return mapping.methods.size();
+		}).thenApply(count -> {
+			phase.count("methods", count);
+			return count;
+		}))).thenCompose(task -> task).toCompletableFuture();
+
+		return CompletableFuture.allOf(fieldMushing, methodMushing).thenCombine(srgTask, (nothing, srg) -> srg).thenComposeAsync(srg -> propagate(srg, executor, metrics), executor);
+	}
+
+	/**
+	 * Start the given phase for a stage which hands its work out to the executor, closing it once the stage finishes however it does.
+	 * Such phases outlive the block which starts them, so can't be closed by a try-with-resources block like every other phase.
+	 *
+	 * @param metrics The metrics to record the phase in
+	 * @param name The name of the phase
+	 * @param stage Starts the stage, given the phase to count what the stage processes in
+	 *
+	 * @return The stage, which completes after the phase is closed
+	 */
+	private static <T> CompletableFuture<T> inPhase(Metrics metrics, String name, Function<Metrics.Phase, CompletableFuture<T>> stage) {
+		Metrics.Phase phase = metrics.start(name);
 
-			        Matcher matcher = classFinder.matcher(desc);
-			        while (matcher.find()) {
-			        	ClassMapping type = backwardsSrg.get(matcher.group(1)); //This will miss for non-Notch types
-			            matcher.appendReplacement(buf, Matcher.quoteReplacement('L' + (type == null ? matcher.group(1) : type.notchName) + ';'));
-			        }
-			        matcher.appendTail(buf);
+		try {
+			return stage.apply(phase).whenComplete((result, t) -> phase.close());
+		} catch (RuntimeException | Error e) {
+			phase.close();
+			throw e;
+		}
+	}
 
-			        mapping.constructors.add(buf.toString());
+	/**
+	 * Run the given action over every given class or line, split into chunks which are each run on the given executor
+	 *
+	 * @param items The classes or lines to run the action over
+	 * @param executor The executor to run each chunk on
+	 * @param action The action to run on each item, which only touches the class it is given and returns the number of members it processed
+	 *
+	 * @return A future of the total number of members processed, once every chunk is done
+	 */
+	static <T> CompletableFuture<Long> forEachChunk(Collection<T> items, Executor executor, ToIntFunction<? super T> action) {
+		Object[] array = items.toArray();
+		int chunks = Math.max(1, Math.min(array.length / CHUNK_SIZE, Runtime.getRuntime().availableProcessors() * 4));
+
+		List<CompletableFuture<Long>> tasks = new ArrayList<>(chunks);
+		for (int chunk = 0; chunk < chunks; chunk++) {
+			int from = (int) ((long) array.length * chunk / chunks);
+			int to = (int) ((long) array.length * (chunk + 1) / chunks);
+
+			tasks.add(CompletableFuture.supplyAsync(() -> {
+				long members = 0;
+
+				for (int i = from; i < to; i++) {
+					@SuppressWarnings("unchecked")
+					T item = (T) array[i];
+					members += action.applyAsInt(item);
 				}
-			} catch (IOException e) {
-				throw new RuntimeException("Error processing constructors", e);
-			}
-		});
-		Future<?> fieldMushing = executor.submit(new Callable<Void>() {
-			public Void call() throws Exception {
-				Map<String, String> fields = fieldTask.get();
 
-				for (ClassMapping mapping : srg.values()) {
-					if (!mapping.fields.isEmpty()) {
-						Map<String, String> descs = getFieldDescs(mapping);
-						Map<String, String> mushed = new HashMap<>();
+				return members;
+			}, executor));
+		}
 
-						for (Entry<String, String> entry : mapping.fields.entrySet()) {
-							String srg = entry.getKey();
+		return CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).thenApply(nothing -> {
+			long members = 0;
 
-							String mcp = fields.getOrDefault(srg, srg);
-							String notch = entry.getValue();
+			for (CompletableFuture<Long> task : tasks) {
+				members += task.join();
+			}
 
-							String desc = descs.get(notch);
-							if (desc == null) throw new IllegalStateException("Unable to find description for " + mapping.notchName + '/' + notch + " (" + mapping.mcpName + '/' + mcp + ')');
-							mushed.put(notch + ";;" + desc, mcp);
-						}
+			return members;
+		});
+	}
 
-						mapping.fields.clear();
-						mapping.fields.putAll(mushed);
-					}
+	/** Propagate the mappings of every class down to its children, in an order such that each class has already inherited from its own parents */
+	private static CompletableFuture<Map<String, ClassMapping>> propagate(SrgMappings srg, Executor executor, Metrics metrics) {
+		Map<String, Party> watchPool;
+		try (Metrics.Phase phase = metrics.start("hierarchy")) {
+			watchPool = srg.classes.values().stream().collect(Collectors.toMap(mapping -> mapping.notchName, Party::new));
+			for (Party party : watchPool.values()) {
+				String superType = srg.superclasses.get(party.mapping.notchName);
+				if (superType != null) party.setSuperclass(watchPool.get(superType));
+
+				for (String interfaceType : srg.interfaces.getOrDefault(party.mapping.notchName, Collections.emptyList())) {
+					party.addInterface(watchPool.get(interfaceType));
 				}
-
-				return null;
 			}
+			phase.count("classes", watchPool.size());
+		}
 
-			private Map<String, String> getFieldDescs(ClassMapping mapping) {
-				try {
-					FieldFisher fisher = new FieldFisher();
-
-					byte[] bytes = getVanillaClass(jar, mapping.notchName);
-					if (bytes == null) throw new IllegalStateException("Unable to find vanilla class: " + mapping.notchName + " (" + mapping.mcpName + ')');
-					new ClassReader(bytes).accept(fisher, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG);
+		//Kahn's algorithm, each generation only inherits once every one of their parents has
+		return inPhase(metrics, "propagation", phase -> {
+			List<Party> roots = watchPool.values().stream().filter(Party::isRoot).collect(Collectors.toList());
+			phase.count("classes", roots.size());
 
-					return fisher.fields.stream().collect(Collectors.toMap(f -> f.name, f -> f.desc));
-				} catch (IOException e) {
-					throw new UncheckedIOException("Error getting vanilla class: " + mapping.notchName + " (" + mapping.mcpName + ')', e);
+			return inherit(roots, executor, phase).thenApply(inherited -> {
+				if (inherited + roots.size() != watchPool.size()) {
+					throw new IllegalStateException("Cyclic class hierarchy, only " + (inherited + roots.size()) + " of " + watchPool.size() + " classes could inherit");
 				}
-			}
+
+				return srg.classes;
+			});
 		});
-		Future<?> methodMushing = executor.submit(() -> {
-			Map<String, String> methods = methodTask.get();
+	}
 
-			for (ClassMapping mapping : srg.values()) {
-				if (!mapping.methods.isEmpty()) {
-					Map<String, String> mushed = new HashMap<>();
+	/**
+	 * Have every class whose parents are all in the given generation (or earlier) inherit, then do the same for their children in turn
+	 *
+	 * @param generation The classes which have just finished inheriting
+	 * @param executor The executor to run each chunk of the next generation on
+	 * @param phase The phase to count the generations and classes in
+	 *
+	 * @return A future of the number of classes which inherited, once there are no more generations to go
+	 */
+	private static CompletableFuture<Long> inherit(List<Party> generation, Executor executor, Metrics.Phase phase) {
+		List<Party> nextGeneration = new ArrayList<>();
 
-					for (Entry<String, String> entry : mapping.methods.entrySet()) {
-						String srgX = entry.getValue();
+		for (Party party : generation) {
+			for (Party child : party.children) {
+				if (--child.waitingParents == 0) nextGeneration.add(child);
+			}
+		}
+		if (nextGeneration.isEmpty()) return CompletableFuture.completedFuture(0L);
+
+		return forEachChunk(nextGeneration, executor, party -> {
+			party.inherit();
+			return 1;
+		}).thenCompose(inherited -> {
+			phase.count("generations", 1).count("classes", inherited);
+			return inherit(nextGeneration, executor, phase).thenApply(later -> inherited + later);
+		});
+	}
 
-						String mcp = methods.getOrDefault(srgX, srgX);
-						String notch = entry.getKey();
+	static SrgMappings srgTask(MappingSupplier<Reader> target) {
+		try (LineTokenizer line = new LineTokenizer(target.get())) {
+			Map<String, ClassMapping> classes = new HashMap<>();
+			SrgMappings out = new SrgMappings(classes);
 
-						mushed.put(notch, mcp);
-					}
+			while (line.nextLine()) {
+				if (line.length() == 0 || line.charAt(0) == '#') continue;
+				if (line.length() < 4 || line.charAt(2) != ':' || line.charAt(3) != ' ') throw line.error("Malformed line");
 
-					mapping.methods.clear();
-					mapping.methods.putAll(mushed);
-				}
-			}
+				String type = line.intern(0, 2);
+				line.skipTo(4);
 
-			return null;
-		});
+				switch (type) {
+				case "PK":
+					break; //We don't care about packages
 
-		executor.shutdown();
-		constructorTask.get();
-		methodMushing.get();
-		fieldMushing.get();
+				case "CL": {
+					line.expectToken(' ', "Notch name");
+					String notch = line.intern(line.tokenStart, line.tokenEnd);
+					line.expectToken(' ', "SRG name");
+					String srg = line.intern(line.tokenStart, line.tokenEnd);
 
-		Map<String, Party> watchPool = new HashMap<>();
-		for (ClassMapping mapping : srg.values()) {
-			try {
-				InheritanceFisher fisher = new InheritanceFisher();
+					classes.put(notch, new ClassMapping(notch, srg));
+					break;
+				}
 
-				byte[] bytes = getVanillaClass(jar, mapping.notchName);
-				if (bytes == null) throw new IllegalStateException("Unable to find vanilla class: " + mapping.notchName + " (" + mapping.mcpName + ')');
-				new ClassReader(bytes).accept(fisher, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG);
+				case "FD": {
+					line.expectToken(' ', "Notch name");
+					int end = line.lastIndexOf('/', line.tokenStart, line.tokenEnd);
+					if (end < 0) throw line.error("Missing field owner");
+					ClassMapping owner = getOwner(classes, line, line.tokenStart, end);
+					String field = line.intern(end + 1, line.tokenEnd);
 
-				String superType = fisher.superName.replace('.', '/');
-				if (srg.containsKey(superType)) {
-					ClassMapping superMap = srg.get(superType);
-					watchPool.computeIfAbsent(superType, k -> new Party(superMap)).children.add(mapping);
-					watchPool.computeIfAbsent(mapping.notchName, k -> new Party(mapping)).parents.add(superMap);
+					line.expectToken(' ', "SRG name");
+					String srg = line.intern(line.lastIndexOf('/', line.tokenStart, line.tokenEnd) + 1, line.tokenEnd);
+
+					List<String> fields = out.undescribedFields.computeIfAbsent(owner.notchName, k -> new ArrayList<>());
+					fields.add(field);
+					fields.add(srg);
+					break;
 				}
 
-				for (String rawInterface : fisher.interfaces) {
-					String interfaceType = rawInterface.replace('.', '/');
-					if (srg.containsKey(interfaceType)) {
-						ClassMapping interfaceMap = srg.get(interfaceType);
-						watchPool.computeIfAbsent(interfaceType, k -> new Party(interfaceMap)).children.add(mapping);
-						watchPool.computeIfAbsent(mapping.notchName, k -> new Party(mapping)).parents.add(interfaceMap);
+				case "MD": {
+					line.expectToken(' ', "Notch name");
+					int end = line.lastIndexOf('/', line.tokenStart, line.tokenEnd);
+					if (end < 0) throw line.error("Missing method owner");
+					ClassMapping owner = getOwner(classes, line, line.tokenStart, end);
+					int nameStart = end + 1, nameEnd = line.tokenEnd;
+
+					line.expectToken(' ', "Notch description");
+					int descStart = line.tokenStart, descEnd = line.tokenEnd;
+
+					line.expectToken(' ', "SRG name");
+					int srgStart = line.lastIndexOf('/', line.tokenStart, line.tokenEnd) + 1;
+					if (line.regionMatches(nameStart, nameEnd, srgStart, line.tokenEnd)) continue; //Skip methods which don't change name
+
+					String method = line.intern(nameStart, nameEnd, descStart, descEnd);
+					String srged = line.intern(srgStart, line.tokenEnd);
+					String old = owner.methods.put(method, srged);
+					if (old != null) {
+						throw line.error("Duplicate method mappings for " + method + " in " + owner.mcpName + ": " + old + " => " + srged);
 					}
+					break;
 				}
-			} catch (IOException e) {
-				throw new UncheckedIOException("Error getting vanilla class: " + mapping.notchName + " (" + mapping.mcpName + ')', e);
-			}
-		}
-
-		Queue<Party> rootParties = watchPool.values().parallelStream().filter(Party::isRoot).collect(Collectors.toCollection(ArrayDeque::new));
-		Party party;
-		while ((party = rootParties.poll()) != null) {
-			Collection<Entry<String, String>> methods = party.mapping.methods.entrySet();
-			Collection<Entry<String, String>> fields = party.mapping.fields.entrySet();
 
-			for (ClassMapping child : party.children) {
-				for (Entry<String, String> entry : methods) {
-					child.methods.putIfAbsent(entry.getKey(), entry.getValue());
-				}
-				for (Entry<String, String> entry : fields) {
-					child.fields.putIfAbsent(entry.getKey(), entry.getValue());
+				default:
+					throw line.error("Unexpected line type: " + type);
 				}
-				rootParties.add(watchPool.get(child.notchName));
 			}
+
+			return out;
+		} catch (IOException e) {
+			throw new RuntimeException("Error processing SRG mappings", e);
 		}
+	}
 
-		return srg;
+	private static ClassMapping getOwner(Map<String, ClassMapping> classes, LineTokenizer line, int start, int end) {
+		ClassMapping owner = classes.get(line.intern(start, end));
+		if (owner == null) throw line.error("Unknown owner " + line.intern(start, end));
+		return owner;
 	}
 
-	private static Map<String, String> mcpTask(MappingSupplier<Reader> target) {
-		try (BufferedReader contents = new BufferedReader(target.get())) {
+	static Map<String, String> mcpTask(MappingSupplier<Reader> target, Metrics metrics, String phaseName) {
+		try (Metrics.Phase phase = metrics.start(phaseName); LineTokenizer line = new LineTokenizer(phase.countCharacters(target).get())) {
 			Map<String, String> mappings = new HashMap<>();
-			contents.readLine(); //Skip the header line
-	
-			for (String line = contents.readLine(); line != null; line = contents.readLine()) {
-				int first = line.indexOf(',');
-	
-				String srg = line.substring(0, first++);
-				String mcp = line.substring(first, line.indexOf(',', first));
-	
+			line.nextLine(); //Skip the header line
+
+			while (line.nextLine()) {
+				if (line.length() == 0) continue;
+
+				line.expectToken(',', "SRG name");
+				String srg = line.intern(line.tokenStart, line.tokenEnd);
+				line.expectToken(',', "MCP name");
+				String mcp = line.intern(line.tokenStart, line.tokenEnd);
+
 				mappings.put(srg, mcp);
 			}
 
+			phase.count("names", mappings.size());
 			return mappings;
 		} catch (IOException e) {
 			throw new RuntimeException("Error processing MCP mappings", e);
 		}
 	}
 
-	static byte[] getVanillaClass(JarFile jar, String name) throws IOException {
-		JarEntry entry = jar.getJarEntry(name.replace('.', '/').concat(".class"));
-		if (entry == null) return null;
-
-		try (InputStream in = jar.getInputStream(entry)) {			
-            byte[] buffer = new byte[4096];
-
-            int read, totalLength = 0;
-            while ((read = in.read(buffer, totalLength, buffer.length - totalLength)) != -1) {
-                totalLength += read;
-
-                if (totalLength >= buffer.length - 1) {
-                    byte[] newBuffer = new byte[buffer.length + 4096];
-                    System.arraycopy(buffer, 0, newBuffer, 0, buffer.length);
-                    buffer = newBuffer;
-                }
-            }
+	/**
+	 * Fish out the hierarchy and field descriptions of every class in the given jar in a single pass, split into chunks run on the given executor
+	 * 
+	 * @param jar The jar to read the classes from, which must stay open until the returned future completes
+	 * @param executor The executor to run each chunk on
+	 * @param phase The phase to count the classes and bytes read in
+	 * 
+	 * @return A future of a map of class names to the {@link ClassFisher}s which visited them
+	 */
+	static CompletableFuture<Map<String, ClassFisher>> fishClasses(ClassSource jar, Executor executor, Metrics.Phase phase) {
+		Map<String, ClassFisher> fishers = new ConcurrentHashMap<>();
 
-            byte[] result = new byte[totalLength];
-            System.arraycopy(buffer, 0, result, 0, totalLength);
-            return result;
-		}
+		return forEachChunk(jar.getClassNames(), executor, name -> {
+			try {
+				return jar.readClass(name, (bytes, offset, length) -> {
+					ClassFisher fisher = ClassFisher.fish(bytes, offset, length);
+					fishers.put(fisher.name, fisher);
+					return length;
+				});
+			} catch (IOException e) {
+				throw new UncheckedIOException("Error getting vanilla class: " + name, e);
+			}
+		}).thenApply(read -> {
+			phase.count("classes", fishers.size()).count("bytes", read);
+			return fishers;
+		});
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,308 @@
+package com.chocohead.stunture;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Timings and counts for each phase of a single mapping build or remap run.
+ * <p>
+ * Each {@link Phase} records its wall time, any counters it was given (such as the classes, members or bytes it processed),
+ * and the bytes allocated by the thread which ran it if the JVM supports measuring that. Work a phase hands off to other threads,
+ * such as parallel streams, counts towards its wall time but not its allocations.
+ * <p>
+ * Completed phases go to every {@link MetricsListener}, and the whole run can be written out with {@link #writeJson(Path)}.
+ *
+ * @author Chocohead
+ */
+public class Metrics {
+	private static final List<MetricsListener> LISTENERS = new CopyOnWriteArrayList<>();
+
+	/** Register a listener to be told about every phase and run from now on */
+	public static void addListener(MetricsListener listener) {
+		LISTENERS.add(listener);
+	}
+
+	public static void removeListener(MetricsListener listener) {
+		LISTENERS.remove(listener);
+	}
+
+	/** A holder for the allocation counting, so a JVM without {@link com.sun.management.ThreadMXBean} only fails to load this */
+	private static class Allocations {
+		static final com.sun.management.ThreadMXBean THREADS;
+		static {
+			java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			THREADS = threads instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported() ? (com.sun.management.ThreadMXBean) threads : null;
+		}
+
+		static long get() {
+			return THREADS != null && THREADS.isThreadAllocatedMemoryEnabled() ? THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+		}
+	}
+
+	private static long allocatedBytes() {
+		try {
+			return Allocations.get();
+		} catch (LinkageError e) {
+			return -1; //Not a HotSpot style JVM
+		}
+	}
+
+	/** A single timed part of a run, started by {@link Metrics#start(String)} and finished by {@link #close()} */
+	public final class Phase implements AutoCloseable {
+		public final String name;
+		/** The name of the thread the phase was started on */
+		public final String thread;
+		private final long threadID = Thread.currentThread().getId();
+		private final long started = System.nanoTime(), startAllocated = allocatedBytes();
+		private final Map<String, Long> counters = new ConcurrentSkipListMap<>();
+		/** Counters added to on hot paths, only merged into {@link #counters} once the phase closes */
+		private final Map<String, LongAdder> tallies = new ConcurrentHashMap<>();
+		private volatile long wallTime = -1, allocated = -1;
+
+		Phase(String name) {
+			this.name = name;
+			thread = Thread.currentThread().getName();
+		}
+
+		/** Add the given amount to the given counter, which is safe to do from any thread */
+		public Phase count(String counter, long amount) {
+			counters.merge(counter, amount, Long::sum);
+			return this;
+		}
+
+		/** Get the tally for the given counter, which is added to the counter once the phase closes */
+		private LongAdder tally(String counter) {
+			return tallies.computeIfAbsent(counter, k -> new LongAdder());
+		}
+
+		/** Wrap the given supplier to count the characters read from each reader it supplies as <code>characters</code> once the phase closes */
+		public MappingSupplier<Reader> countCharacters(MappingSupplier<Reader> supplier) {
+			LongAdder characters = tally("characters");
+
+			return () -> new FilterReader(supplier.get()) {
+				@Override
+				public int read() throws IOException {
+					int read = super.read();
+					if (read >= 0) characters.increment();
+					return read;
+				}
+
+				@Override
+				public int read(char[] buffer, int offset, int length) throws IOException {
+					int read = super.read(buffer, offset, length);
+					if (read > 0) characters.add(read);
+					return read;
+				}
+			};
+		}
+
+		/**
+		 * Wrap the given consumer to count each class it is given as <code>classes</code> and their lengths as <code>bytes</code> once the phase closes.
+		 * The wrapped consumer can be given classes from many threads at once without them contending over the counters.
+		 */
+		public BiConsumer<String, byte[]> countClasses(BiConsumer<String, byte[]> consumer) {
+			LongAdder classes = tally("classes"), bytes = tally("bytes");
+
+			return (name, contents) -> {
+				classes.increment();
+				bytes.add(contents.length);
+				consumer.accept(name, contents);
+			};
+		}
+
+		public long getCount(String counter) {
+			return counters.getOrDefault(counter, 0L);
+		}
+
+		public Map<String, Long> getCounters() {
+			return Collections.unmodifiableMap(counters);
+		}
+
+		/** When the phase started, in nanoseconds since the run started */
+		public long getStartOffset() {
+			return started - start;
+		}
+
+		/** How long the phase took in nanoseconds, or <code>-1</code> if it is yet to finish */
+		public long getWallTime() {
+			return wallTime;
+		}
+
+		/** The bytes the phase's thread allocated whilst running it, or <code>-1</code> if unknown */
+		public long getAllocatedBytes() {
+			return allocated;
+		}
+
+		public boolean isComplete() {
+			return wallTime >= 0;
+		}
+
+		@Override
+		public void close() {
+			if (isComplete()) return;
+
+			for (Entry<String, LongAdder> tally : tallies.entrySet()) {
+				count(tally.getKey(), tally.getValue().sum());
+			}
+
+			if (startAllocated >= 0 && Thread.currentThread().getId() == threadID) {
+				long end = allocatedBytes();
+				if (end >= 0) allocated = end - startAllocated;
+			}
+			wallTime = System.nanoTime() - started;
+
+			phases.add(this);
+			for (MetricsListener listener : LISTENERS) {
+				try {
+					listener.phaseCompleted(Metrics.this, this);
+				} catch (RuntimeException e) {
+					System.err.println("Error in metrics listener " + listener + ": " + e);
+				}
+			}
+		}
+	}
+
+	/** What the run is doing, such as <code>build</code> or <code>remap</code> */
+	public final String name;
+	private final Instant startTime = Instant.now();
+	private final long start = System.nanoTime();
+	private final Queue<Phase> phases = new ConcurrentLinkedQueue<>();
+	private volatile long wallTime = -1;
+
+	public Metrics(String name) {
+		this.name = name;
+	}
+
+	/** Start timing a new phase on the current thread, which ends when the returned phase is closed */
+	public Phase start(String phase) {
+		return new Phase(phase);
+	}
+
+	/** Every phase which has completed so far, in the order they completed */
+	public List<Phase> getPhases() {
+		return Collections.unmodifiableList(new ArrayList<>(phases));
+	}
+
+	/** Get the first completed phase with the given name, or <code>null</code> if there isn't one */
+	public Phase getPhase(String name) {
+		for (Phase phase : phases) {
+			if (phase.name.equals(name)) return phase;
+		}
+
+		return null;
+	}
+
+	public Instant getStartTime() {
+		return startTime;
+	}
+
+	/** How long the whole run took in nanoseconds, or <code>-1</code> if it is yet to finish */
+	public long getWallTime() {
+		return wallTime;
+	}
+
+	/** Mark the run as complete, telling every listener */
+	public void finish() {
+		if (wallTime >= 0) return;
+		wallTime = System.nanoTime() - start;
+
+		for (MetricsListener listener : LISTENERS) {
+			try {
+				listener.runCompleted(this);
+			} catch (RuntimeException e) {
+				System.err.println("Error in metrics listener " + listener + ": " + e);
+			}
+		}
+	}
+
+	/** Produce a JSON report of the run and every phase which has completed so far */
+	public String toJson() {
+		StringBuilder out = new StringBuilder("{\n");
+		out.append("\t\"run\": ").append(quote(name)).append(",\n");
+		out.append("\t\"start\": ").append(quote(startTime.toString())).append(",\n");
+		out.append("\t\"wallMillis\": ").append(millis(wallTime)).append(",\n");
+		out.append("\t\"phases\": [");
+
+		boolean first = true;
+		for (Phase phase : phases) {
+			out.append(first ? "\n" : ",\n");
+			first = false;
+
+			out.append("\t\t{\"name\": ").append(quote(phase.name));
+			out.append(", \"thread\": ").append(quote(phase.thread));
+			out.append(", \"startMillis\": ").append(millis(phase.getStartOffset()));
+			out.append(", \"wallMillis\": ").append(millis(phase.getWallTime()));
+			out.append(", \"allocatedBytes\": ").append(phase.getAllocatedBytes() >= 0 ? Long.toString(phase.getAllocatedBytes()) : "null");
+			out.append(", \"counters\": {");
+
+			boolean firstCounter = true;
+			for (Entry<String, Long> counter : phase.getCounters().entrySet()) {
+				if (!firstCounter) out.append(", ");
+				firstCounter = false;
+				out.append(quote(counter.getKey())).append(": ").append(counter.getValue());
+			}
+			out.append("}}");
+		}
+
+		return out.append(first ? "]\n}\n" : "\n\t]\n}\n").toString();
+	}
+
+	/** Write the {@link #toJson() JSON report} of the run to the given file */
+	public void writeJson(Path to) throws IOException {
+		Files.write(to, toJson().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String millis(long nanos) {
+		return nanos >= 0 ? Double.toString(nanos / 1000 / 1000D) : "null";
+	}
+
+	private static String quote(String value) {
+		StringBuilder out = new StringBuilder(value.length() + 2).append('"');
+
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+
+			switch (c) {
+			case '"':
+			case '\\':
+				out.append('\\').append(c);
+				break;
+
+			case '\n':
+				out.append("\\n");
+				break;
+
+			case '\t':
+				out.append("\\t");
+				break;
+
+			default:
+				if (c < 0x20) {
+					out.append(String.format("\\u%04x", (int) c));
+				} else {
+					out.append(c);
+				}
+			}
+		}
+
+		return out.append('"').toString();
+	}
+}
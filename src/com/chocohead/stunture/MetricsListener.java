@@ -0,0 +1,27 @@
+package com.chocohead.stunture;
+
+/**
+ * A listener told about every {@link Metrics.Phase} as it completes, registered with {@link Metrics#addListener(MetricsListener)}
+ * <p>
+ * Listeners are called on whichever thread completed the phase, so must be thread safe.
+ *
+ * @author Chocohead
+ */
+@FunctionalInterface
+public interface MetricsListener {
+	/**
+	 * Called when a phase of a run completes
+	 *
+	 * @param run The run the phase is from
+	 * @param phase The completed phase
+	 */
+	void phaseCompleted(Metrics run, Metrics.Phase phase);
+
+	/**
+	 * Called once the whole run has completed
+	 *
+	 * @param run The completed run
+	 */
+	default void runCompleted(Metrics run) {
+	}
+}
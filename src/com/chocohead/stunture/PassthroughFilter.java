@@ -0,0 +1,356 @@
+package com.chocohead.stunture;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.objectweb.asm.ClassReader;
+
+import com.chocohead.rift.RemapperTables;
+
+/**
+ * A membership filter of every class name which remapping could affect, for spotting classes which can be copied as they are.
+ * <p>
+ * The filter holds every mapped class, along with every class on the classpath or in the input which (transitively) extends or implements one,
+ * as such classes can inherit mapped members. A class whose constant pool never names any of these can't have anything in it remapped,
+ * so it can skip going through a remapper entirely.
+ * <p>
+ * Names are checked straight against the bytes of the constant pool through a Bloom filter, only decoding them when the filter thinks they might be present.
+ *
+ * @author Chocohead
+ */
+public class PassthroughFilter {
+	private final long[] bits;
+	private final int mask;
+	private final Set<String> names;
+
+	private PassthroughFilter(Set<String> names) {
+		this.names = names;
+
+		//Around 16 bits per name, so a miss is almost always a definite miss
+		int size = Integer.highestOneBit(Math.max(64, names.size() * 16 - 1)) << 1;
+		bits = new long[size >>> 6];
+		mask = size - 1;
+
+		for (String name : names) {
+			long hash = hash(name);
+			set((int) hash);
+			set((int) (hash >>> 21));
+			set((int) (hash >>> 42));
+		}
+	}
+
+	/**
+	 * Create a filter for the classes which the given tables map, or which inherit from one
+	 *
+	 * @param tables The tables the input will be remapped with
+	 * @param input The classes of the input, from internal name to bytes
+	 * @param classpath The (indexed) classpath the input will be remapped with
+	 *
+	 * @return A filter for the input's classes
+	 *
+	 * @throws IOException If there is an error reading the classpath
+	 */
+	public static PassthroughFilter create(RemapperTables tables, Map<String, byte[]> input, Path... classpath) throws IOException {
+		return create(tables, input, readHierarchy(tables.classes::containsKey, classpath));
+	}
+
+	/**
+	 * Create a filter for the classes which the given tables map, or which inherit from one
+	 *
+	 * @param tables The tables the input will be remapped with
+	 * @param input The classes of the input, from internal name to bytes
+	 * @param classpath The {@link #readHierarchy(Predicate, Path...) hierarchy} of the classpath the input will be remapped with
+	 *
+	 * @return A filter for the input's classes
+	 */
+	public static PassthroughFilter create(RemapperTables tables, Map<String, byte[]> input, Map<String, String[]> classpath) {
+		Map<String, String[]> hierarchy = new HashMap<>();
+		for (Map.Entry<String, byte[]> entry : input.entrySet()) {
+			hierarchy.put(entry.getKey(), supertypes(entry.getValue()));
+		}
+
+		return forHierarchy(tables, hierarchy, classpath);
+	}
+
+	/**
+	 * Create a filter for the classes which the given tables map, or which inherit from one
+	 *
+	 * @param tables The tables the input will be remapped with
+	 * @param hierarchy The {@link #supertypes(byte[]) supertypes} of each of the input's classes, from internal name
+	 * @param classpath The (indexed) classpath the input will be remapped with
+	 *
+	 * @return A filter for the input's classes
+	 *
+	 * @throws IOException If there is an error reading the classpath
+	 */
+	public static PassthroughFilter forHierarchy(RemapperTables tables, Map<String, String[]> hierarchy, Path... classpath) throws IOException {
+		return forHierarchy(tables, hierarchy, readHierarchy(tables.classes::containsKey, classpath));
+	}
+
+	/**
+	 * Create a filter for the classes which the given tables map, or which inherit from one
+	 *
+	 * @param tables The tables the input will be remapped with
+	 * @param hierarchy The {@link #supertypes(byte[]) supertypes} of each of the input's classes, from internal name
+	 * @param classpath The {@link #readHierarchy(Predicate, Path...) hierarchy} of the classpath the input will be remapped with
+	 *
+	 * @return A filter for the input's classes
+	 */
+	public static PassthroughFilter forHierarchy(RemapperTables tables, Map<String, String[]> hierarchy, Map<String, String[]> classpath) {
+		Map<String, String[]> supertypes = new HashMap<>(classpath);
+		supertypes.putAll(hierarchy);
+
+		Set<String> names = new HashSet<>(tables.classes.keySet());
+		Map<String, Boolean> inherits = new HashMap<>();
+		for (String name : supertypes.keySet()) {
+			if (inheritsMapped(name, names, supertypes, inherits)) names.add(name);
+		}
+
+		return new PassthroughFilter(names);
+	}
+
+	/**
+	 * Read the {@link #supertypes(byte[]) supertypes} of every class in the jars on the given classpath
+	 *
+	 * @param skip Which classes don't need reading, such as those already known to be mapped
+	 * @param classpath The (indexed) classpath to read
+	 *
+	 * @return The supertypes of each class read, from internal name
+	 *
+	 * @throws IOException If there is an error reading the classpath
+	 */
+	public static Map<String, String[]> readHierarchy(Predicate<String> skip, Path... classpath) throws IOException {
+		Map<String, String[]> supertypes = new HashMap<>();
+
+		for (Path jar : classpath) {
+			if (!Files.isRegularFile(jar)) continue; //Classes in directories aren't expected to extend Minecraft's
+
+			try (ZipFile zip = new ZipFile(jar.toFile())) {
+				for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+					ZipEntry entry = entries.nextElement();
+					if (entry.isDirectory() || !entry.getName().endsWith(".class")) continue;
+
+					String name = entry.getName().substring(0, entry.getName().length() - 6);
+					if (skip.test(name)) continue;
+
+					try (InputStream in = zip.getInputStream(entry)) {
+						supertypes.put(name, supertypes(ClasspathIndex.readFully(in)));
+					}
+				}
+			}
+		}
+
+		return supertypes;
+	}
+
+	/** The interfaces of the given class, followed by its superclass (which is <code>null</code> for {@link Object}) */
+	static String[] supertypes(byte[] bytes) {
+		ClassReader reader = new ClassReader(bytes);
+		String[] interfaces = reader.getInterfaces();
+		String[] types = Arrays.copyOf(interfaces, interfaces.length + 1);
+		types[interfaces.length] = reader.getSuperName();
+		return types;
+	}
+
+	private static boolean inheritsMapped(String name, Collection<String> mapped, Map<String, String[]> supertypes, Map<String, Boolean> inherits) {
+		if (name == null) return false;
+		if (mapped.contains(name)) return true;
+
+		Boolean known = inherits.get(name);
+		if (known != null) return known;
+
+		String[] types = supertypes.get(name);
+		if (types == null) return false; //Not something we know about, so probably from the JDK
+		inherits.put(name, Boolean.FALSE); //Guard against (invalid) circular hierarchies
+
+		for (String type : types) {
+			if (inheritsMapped(type, mapped, supertypes, inherits)) {
+				inherits.put(name, Boolean.TRUE);
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/** Whether the given class can be copied as it is, as nothing in its constant pool names any class in the filter */
+	public boolean canPassthrough(byte[] bytes) {
+		int count = readShort(bytes, 8);
+		int[] utf8s = new int[count];
+		int[] classes = new int[count];
+		int classCount = 0;
+		int offset = 10;
+
+		for (int i = 1; i < count; i++) {
+			int tag = bytes[offset];
+
+			switch (tag) {
+			case 1: { //CONSTANT_Utf8
+				utf8s[i] = offset;
+				int start = offset + 3;
+				int end = start + readShort(bytes, offset + 1);
+				if (mentionsMapped(bytes, start, end)) return false;
+				offset = end;
+				break;
+			}
+
+			case 7: //CONSTANT_Class
+				classes[classCount++] = readShort(bytes, offset + 1);
+				offset += 3;
+				break;
+
+			case 3: //CONSTANT_Integer
+			case 4: //CONSTANT_Float
+			case 9: //CONSTANT_Fieldref
+			case 10: //CONSTANT_Methodref
+			case 11: //CONSTANT_InterfaceMethodref
+			case 12: //CONSTANT_NameAndType
+			case 17: //CONSTANT_Dynamic
+			case 18: //CONSTANT_InvokeDynamic
+				offset += 5;
+				break;
+
+			case 5: //CONSTANT_Long
+			case 6: //CONSTANT_Double
+				offset += 9;
+				i++; //Takes up two slots
+				break;
+
+			case 15: //CONSTANT_MethodHandle
+				offset += 4;
+				break;
+
+			case 8: //CONSTANT_String
+			case 16: //CONSTANT_MethodType
+			case 19: //CONSTANT_Module
+			case 20: //CONSTANT_Package
+				offset += 3;
+				break;
+
+			default:
+				return false; //Not something we understand, let the remapper deal with it
+			}
+		}
+
+		//Only the constants which are used as class names can be checked as a whole, Notch names are too short to check every constant
+		for (int i = 0; i < classCount; i++) {
+			int utf8 = utf8s[classes[i]];
+			if (utf8 == 0) return false; //Not pointing to a UTF-8 constant, so something is wrong
+
+			int start = utf8 + 3;
+			if (contains(bytes, start, start + readShort(bytes, utf8 + 1))) return false;
+		}
+
+		return true;
+	}
+
+	/** Check the given UTF-8 constant for any class names in it as a descriptor or signature */
+	private boolean mentionsMapped(byte[] bytes, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (bytes[i] == 'L') {
+				int nameStart = ++i;
+
+				while (i < end && bytes[i] != ';' && bytes[i] != '<') i++;
+				if (i < end && contains(bytes, nameStart, i)) return true;
+			}
+		}
+
+		return false;
+	}
+
+	private boolean contains(byte[] bytes, int start, int end) {
+		if (start >= end) return false;
+
+		long hash = hash(bytes, start, end);
+		if (!isSet((int) hash) || !isSet((int) (hash >>> 21)) || !isSet((int) (hash >>> 42))) return false;
+
+		//Might be present, only the names themselves can say for sure
+		return names.contains(decode(bytes, start, end));
+	}
+
+	private void set(int hash) {
+		int bit = hash & mask;
+		bits[bit >>> 6] |= 1L << bit;
+	}
+
+	private boolean isSet(int hash) {
+		int bit = hash & mask;
+		return (bits[bit >>> 6] & 1L << bit) != 0;
+	}
+
+	/** FNV-1a over the given bytes, mixed so that every bit of the result depends on every byte */
+	private static long hash(byte[] bytes, int start, int end) {
+		long hash = 0xCBF29CE484222325L;
+
+		for (int i = start; i < end; i++) {
+			hash = (hash ^ (bytes[i] & 0xFF)) * 0x100000001B3L;
+		}
+
+		return mix(hash);
+	}
+
+	/** The same as {@link #hash(byte[], int, int)} over the modified UTF-8 form of the given name, as it would appear in a class file */
+	private static long hash(String name) {
+		long hash = 0xCBF29CE484222325L;
+
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+
+			if (c >= 0x01 && c <= 0x7F) {
+				hash = (hash ^ c) * 0x100000001B3L;
+			} else if (c <= 0x7FF) {
+				hash = (hash ^ (0xC0 | c >> 6 & 0x1F)) * 0x100000001B3L;
+				hash = (hash ^ (0x80 | c & 0x3F)) * 0x100000001B3L;
+			} else {
+				hash = (hash ^ (0xE0 | c >> 12 & 0xF)) * 0x100000001B3L;
+				hash = (hash ^ (0x80 | c >> 6 & 0x3F)) * 0x100000001B3L;
+				hash = (hash ^ (0x80 | c & 0x3F)) * 0x100000001B3L;
+			}
+		}
+
+		return mix(hash);
+	}
+
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	/** Decode the given modified UTF-8 bytes */
+	private static String decode(byte[] bytes, int start, int end) {
+		char[] chars = new char[end - start];
+		int length = 0;
+
+		for (int i = start; i < end;) {
+			int b = bytes[i++] & 0xFF;
+
+			if (b < 0x80) {
+				chars[length++] = (char) b;
+			} else if (b < 0xE0) {
+				chars[length++] = (char) ((b & 0x1F) << 6 | bytes[i++] & 0x3F);
+			} else {
+				chars[length++] = (char) ((b & 0xF) << 12 | (bytes[i++] & 0x3F) << 6 | bytes[i++] & 0x3F);
+			}
+		}
+
+		return new String(chars, 0, length);
+	}
+
+	private static int readShort(byte[] bytes, int offset) {
+		return (bytes[offset] & 0xFF) << 8 | bytes[offset + 1] & 0xFF;
+	}
+}
@@ -0,0 +1,260 @@
+package com.chocohead.stunture;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.objectweb.asm.ClassReader;
+
+import com.chocohead.rift.RemapperTables;
+
+/**
+ * An on disk cache of remapped classes, so remapping a rebuilt jar only has to remap the classes which changed.
+ * <p>
+ * Each class is keyed by a hash of its bytes, the mappings and classpath it was remapped with, and the hierarchy and member signatures
+ * of every class in the same jar it extends or refers to. Changing a class's supertypes, or the members of a class it uses, changes
+ * its key even when the class itself is untouched, as how its references resolve might have changed.
+ * <p>
+ * The remapped classes for each input jar are kept in a single jar in the cache, named by the key of the class each came from.
+ * Classes which the {@link PassthroughFilter} shows remapping can't affect are copied straight to the output instead.
+ *
+ * @author Chocohead
+ */
+public class RemapCache {
+	/** The default location of the cache */
+	public static final Path DEFAULT = Paths.get(System.getProperty("user.home"), ".stunture", "remap");
+	/** The version of the cache, bumped whenever how classes are keyed or stored changes */
+	static final int VERSION = 1;
+
+	private final Path directory;
+
+	public RemapCache(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Remap the given input to the given output, only remapping the classes which aren't already in the cache
+	 *
+	 * @param tables The tables to remap with
+	 * @param mappings A hash identifying where the tables came from, and which way round they are
+	 * @param input The jar to remap
+	 * @param output Where to write the remapped jar
+	 * @param compression How hard to compress the remapped jar
+	 * @param metrics The metrics to record each phase in
+	 * @param classpath Any jars needed to resolve the input's hierarchy
+	 *
+	 * @throws IOException If there is an error reading the input, or writing the output
+	 */
+	public void remap(RemapperTables tables, String mappings, Path input, Path output, JarWriter.Compression compression, Metrics metrics, Path... classpath) throws IOException {
+		Map<String, byte[]> classes = Main.readInput(input, metrics);
+		Path[] indexed = Main.indexClasspath(metrics, classpath);
+		Map<String, String> keys;
+		try (Metrics.Phase phase = metrics.start("hash-classes")) {
+			String context = identify(mappings, indexed);
+			keys = context != null ? key(context, classes) : Collections.emptyMap();
+			phase.count("classes", keys.size());
+		}
+
+		Path cache = directory.resolve(Hashing.hash(input.toRealPath().toString().getBytes(StandardCharsets.UTF_8)) + ".jar");
+		Map<String, String> outputNames = new ConcurrentHashMap<>();
+		Map<String, byte[]> remapped = new ConcurrentHashMap<>();
+		Files.createDirectories(directory);
+		Path newCache = Files.createTempFile(directory, cache.getFileName().toString(), ".tmp");
+
+		//Anything going wrong before the new cache is moved into place shouldn't leave it behind
+		try {
+			try (ZipFile oldCache = Files.isRegularFile(cache) ? new ZipFile(cache.toFile()) : null) {
+				Map<String, ZipEntry> cached = new HashMap<>();
+				if (oldCache != null) {
+					for (Enumeration<? extends ZipEntry> entries = oldCache.entries(); entries.hasMoreElements();) {
+						ZipEntry entry = entries.nextElement();
+						int split = entry.getName().indexOf('/');
+						if (split > 0) cached.put(entry.getName().substring(0, split), entry);
+					}
+				}
+
+				Set<String> changed = new HashSet<>();
+				for (String name : classes.keySet()) {
+					String key = keys.get(name);
+					if (key == null || !cached.containsKey(key)) changed.add(name);
+				}
+
+				JarWriter out = new JarWriter(output, compression);
+				try (ZipOutputStream newEntries = new ZipOutputStream(Files.newOutputStream(newCache))) {
+					try (Metrics.Phase phase = metrics.start("copy-resources")) {
+						phase.count("files", out.addNonClassFiles(input));
+					}
+
+					if (!changed.isEmpty()) {
+						//Classes which can't be affected by remapping are cheaper to copy than to cache
+						changed = Main.passthrough(tables, classes, changed, indexed, metrics, out);
+					}
+
+					if (!changed.isEmpty()) {
+						//The remapper only says what each class's output name is, so match them back up via the class mappings
+						Map<String, String> inputNames = new HashMap<>();
+						for (String name : changed) {
+							String key = keys.get(name);
+							if (key != null) inputNames.put(tables.classes.getOrDefault(name, name), key);
+						}
+
+						Main.remapClasses(tables, classes, changed, indexed, metrics, (name, bytes) -> {
+							out.accept(name, bytes);
+
+							String key = inputNames.get(name);
+							if (key != null) {
+								outputNames.put(key, name);
+								remapped.put(key, bytes);
+							}
+						});
+					}
+
+					try (Metrics.Phase phase = metrics.start("copy-cached")) {
+						long copied = 0, copiedBytes = 0;
+
+						for (Entry<String, byte[]> entry : classes.entrySet()) {
+							String key = keys.get(entry.getKey());
+							if (key == null) continue;
+
+							if (remapped.containsKey(key)) {
+								Main.writeEntry(newEntries, key + '/' + outputNames.get(key), remapped.get(key));
+							} else {
+								ZipEntry cachedEntry = cached.get(key);
+								if (cachedEntry == null) continue; //Passed through, or remapped but couldn't be matched to its output, so isn't cached
+
+								byte[] bytes;
+								try (InputStream in = oldCache.getInputStream(cachedEntry)) {
+									bytes = ClasspathIndex.readFully(in);
+								}
+
+								String outputName = cachedEntry.getName().substring(key.length() + 1);
+								out.accept(outputName, bytes);
+								Main.writeEntry(newEntries, cachedEntry.getName(), bytes);
+								copied++;
+								copiedBytes += bytes.length;
+							}
+						}
+
+						phase.count("classes", copied).count("bytes", copiedBytes);
+					}
+				} finally {
+					Main.close(out, metrics, "write-output");
+				}
+			}
+
+			try (Metrics.Phase phase = metrics.start("write-cache")) {
+				Files.move(newCache, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				phase.count("bytes", Files.size(cache));
+			}
+		} finally {
+			Files.deleteIfExists(newCache);
+		}
+	}
+
+	/** Produce a hash of the given mappings and each of the given classpath jars, or <code>null</code> if any can't be identified */
+	private static String identify(String mappings, Path[] classpath) {
+		String[] parts = new String[classpath.length + 3];
+		parts[0] = Integer.toString(VERSION);
+		parts[1] = Integer.toString(ClasspathIndex.VERSION);
+		parts[2] = mappings;
+
+		for (int i = 0; i < classpath.length; i++) {
+			if (!Files.isRegularFile(classpath[i])) return null; //Directories can change without anything noticing
+			parts[i + 3] = Hashing.hash(classpath[i]);
+		}
+
+		return Hashing.hash(parts);
+	}
+
+	/** Produce the key for each of the given classes, which are already remapped in the given context */
+	private static Map<String, String> key(String context, Map<String, byte[]> classes) {
+		Map<String, ClassReader> readers = new ConcurrentHashMap<>();
+		Map<String, String> stubs = new ConcurrentHashMap<>();
+		classes.entrySet().parallelStream().forEach(entry -> {
+			ClassReader reader = new ClassReader(entry.getValue());
+			readers.put(entry.getKey(), reader);
+			stubs.put(entry.getKey(), Hashing.hash(ClasspathIndex.stub(entry.getValue())));
+		});
+
+		Map<String, String> hierarchies = new HashMap<>();
+		for (String name : classes.keySet()) {
+			hierarchy(name, readers, stubs, hierarchies);
+		}
+
+		Map<String, String> keys = new ConcurrentHashMap<>();
+		classes.entrySet().parallelStream().forEach(entry -> {
+			String name = entry.getKey();
+			List<String> parts = new ArrayList<>();
+			parts.add(context);
+			parts.add(Hashing.hash(entry.getValue()));
+			parts.add(hierarchies.get(name));
+
+			for (String reference : references(readers.get(name))) {
+				String hierarchy = hierarchies.get(reference);
+				if (hierarchy != null && !reference.equals(name)) parts.add(hierarchy);
+			}
+
+			keys.put(name, Hashing.hash(parts.toArray(new String[0])));
+		});
+
+		return keys;
+	}
+
+	/** Hash the member signatures of the given class, along with those of each of its supertypes which are from the same jar */
+	private static String hierarchy(String name, Map<String, ClassReader> readers, Map<String, String> stubs, Map<String, String> hierarchies) {
+		String hash = hierarchies.get(name);
+		if (hash != null) return hash;
+
+		ClassReader reader = readers.get(name);
+		if (reader == null) return null; //Not from the input
+		hierarchies.put(name, ""); //Guard against (invalid) circular hierarchies
+
+		List<String> parts = new ArrayList<>();
+		parts.add(stubs.get(name));
+		if (reader.getSuperName() != null) {
+			String parent = hierarchy(reader.getSuperName(), readers, stubs, hierarchies);
+			if (parent != null) parts.add(parent);
+		}
+		for (String type : reader.getInterfaces()) {
+			String parent = hierarchy(type, readers, stubs, hierarchies);
+			if (parent != null) parts.add(parent);
+		}
+
+		hierarchies.put(name, hash = Hashing.hash(parts.toArray(new String[0])));
+		return hash;
+	}
+
+	/** Find every class the given class refers to from its constant pool, in a stable order */
+	private static Iterable<String> references(ClassReader reader) {
+		TreeSet<String> out = new TreeSet<>();
+		char[] buffer = new char[reader.getMaxStringLength()];
+
+		for (int i = 1; i < reader.getItemCount(); i++) {
+			int offset = reader.getItem(i);
+
+			if (offset > 0 && reader.readByte(offset - 1) == 7) { //CONSTANT_Class
+				out.add(reader.readUTF8(offset, buffer));
+			}
+		}
+
+		return out;
+	}
+}
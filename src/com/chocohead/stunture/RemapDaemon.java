@@ -0,0 +1,429 @@
+package com.chocohead.stunture;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import com.chocohead.rift.MappingBlob;
+
+/**
+ * A long running remapper which keeps {@link MappingBlob}s and indexed classpaths loaded between jobs, taking them from {@link #submit(Path, Path, Path, boolean, Path...)} over loopback TCP.
+ * <p>
+ * The port and a random token needed to submit jobs are kept in {@link #STATE}, only readable by the user running the daemon.
+ * Each job is a single line of tab separated arguments after the token line, answered with an <code>OK</code> or <code>ERROR</code> line.
+ * Jobs are either <code>REMAP</code> from Notch to MCP names, or <code>REOBF</code> back from MCP to Notch names, optionally followed by
+ * <code>--compression=&lt;name&gt;</code> and <code>--metrics=&lt;report&gt;</code> before the paths, as they would be given to {@link Main}.
+ *
+ * @author Chocohead
+ */
+public class RemapDaemon {
+	/** How long a connection can go without sending anything before it is dropped, so a stalled client can't hold a thread forever */
+	private static final int READ_TIMEOUT = 30000;
+	/** Where a running daemon records its port and token */
+	public static final Path STATE = Paths.get(System.getProperty("user.home"), ".stunture", "daemon");
+
+	/** Something kept loaded between jobs, which is reloaded once the files it came from change */
+	private interface Loaded {
+		boolean isCurrent() throws IOException;
+	}
+
+	@FunctionalInterface
+	private interface Loader<T extends Loaded> {
+		T load() throws IOException;
+	}
+
+	/** A blob which is mapped rather than read in, so each job only decodes as much of it as it needs */
+	private static class LoadedBlob implements Loaded {
+		public final Path file;
+		public final FileTime modified;
+		public final long size;
+		public final MappingBlob blob;
+
+		public LoadedBlob(Path file) throws IOException {
+			this.file = file;
+			modified = Files.getLastModifiedTime(file);
+			size = Files.size(file);
+			blob = MappingBlob.map(file.toFile());
+		}
+
+		@Override
+		public boolean isCurrent() throws IOException {
+			return modified.equals(Files.getLastModifiedTime(file)) && size == Files.size(file);
+		}
+	}
+
+	/** A classpath swapped for its stubs, along with the hierarchy of every class in them */
+	private static class LoadedClasspath implements Loaded {
+		public final Path[] jars;
+		private final FileTime[] modified;
+		private final long[] sizes;
+		public final Path[] indexed;
+		public final Map<String, String[]> hierarchy;
+
+		public LoadedClasspath(Path[] jars, Metrics metrics) throws IOException {
+			this.jars = jars;
+			modified = new FileTime[jars.length];
+			sizes = new long[jars.length];
+			for (int i = 0; i < jars.length; i++) {
+				//Directories are read as they are by each job, so there's nothing to go stale
+				if (!Files.isRegularFile(jars[i])) continue;
+
+				modified[i] = Files.getLastModifiedTime(jars[i]);
+				sizes[i] = Files.size(jars[i]);
+			}
+
+			indexed = Main.indexClasspath(metrics, jars);
+			try (Metrics.Phase phase = metrics.start("read-classpath")) {
+				hierarchy = Collections.unmodifiableMap(PassthroughFilter.readHierarchy(name -> false, indexed));
+				phase.count("jars", indexed.length).count("classes", hierarchy.size());
+			}
+		}
+
+		@Override
+		public boolean isCurrent() throws IOException {
+			for (int i = 0; i < jars.length; i++) {
+				if (modified[i] != null && (!modified[i].equals(Files.getLastModifiedTime(jars[i])) || sizes[i] != Files.size(jars[i]))) return false;
+			}
+
+			return true;
+		}
+	}
+
+	private final ServerSocket server;
+	private final String token;
+	private final Semaphore slots;
+	private final ExecutorService connections = Executors.newCachedThreadPool();
+	private final Map<Path, CompletableFuture<LoadedBlob>> blobs = new ConcurrentHashMap<>();
+	private final Map<List<Path>, CompletableFuture<LoadedClasspath>> classpaths = new ConcurrentHashMap<>();
+
+	/**
+	 * Create a daemon listening on the loopback address
+	 *
+	 * @param port The port to listen on, or <code>0</code> to use any free one
+	 * @param jobs The maximum number of jobs to run at once
+	 *
+	 * @throws IOException If the socket can't be opened
+	 */
+	public RemapDaemon(int port, int jobs) throws IOException {
+		server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		slots = new Semaphore(jobs, true);
+
+		byte[] secret = new byte[16];
+		new SecureRandom().nextBytes(secret);
+		StringBuilder token = new StringBuilder();
+		for (byte b : secret) {
+			token.append(Character.forDigit(b >> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		this.token = token.toString();
+	}
+
+	/** Accept jobs until the daemon is told to stop */
+	public void run() throws IOException {
+		Files.createDirectories(STATE.getParent());
+		Files.deleteIfExists(STATE);
+		try {
+			Files.createFile(STATE, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		} catch (UnsupportedOperationException e) {
+			Files.createFile(STATE); //Not a POSIX file system
+		}
+		Files.write(STATE, Arrays.asList(server.getLocalPort() + " " + token), StandardCharsets.UTF_8);
+		System.out.println("Remap daemon listening on port " + server.getLocalPort());
+
+		try {
+			while (!server.isClosed()) {
+				Socket socket;
+				try {
+					socket = server.accept();
+				} catch (SocketException e) {
+					if (server.isClosed()) break; //Told to stop
+					throw e;
+				}
+
+				socket.setSoTimeout(READ_TIMEOUT);
+				connections.execute(() -> handle(socket));
+			}
+		} finally {
+			connections.shutdown();
+			Files.deleteIfExists(STATE);
+		}
+	}
+
+	private void handle(Socket socket) {
+		try (Socket connection = socket;
+				BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+				Writer out = new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8)) {
+			if (!token.equals(in.readLine())) {
+				out.write("ERROR\tInvalid token\n");
+				return;
+			}
+
+			String line = in.readLine();
+			if (line == null) return;
+
+			String response;
+			try {
+				response = "OK\t" + process(line.split("\t"));
+			} catch (Throwable t) {
+				response = "ERROR\t" + String.valueOf(t).replace('\n', ' ');
+			}
+
+			out.write(response + '\n');
+		} catch (IOException e) {
+			System.err.println("Error handling remap connection: " + e);
+		}
+	}
+
+	private String process(String[] command) throws IOException, InterruptedException {
+		switch (command[0]) {
+		case "PING":
+			return "PONG";
+
+		case "STOP":
+			server.close();
+			return "Stopping";
+
+		case "REMAP":
+		case "REOBF": {
+			JarWriter.Compression compression = JarWriter.Compression.DEFAULT;
+			Path metricsFile = null;
+			int from = 1;
+			for (; from < command.length && command[from].startsWith("--"); from++) {
+				String option = command[from];
+
+				if (option.startsWith("--compression=")) {
+					compression = JarWriter.Compression.byName(option.substring("--compression=".length()));
+				} else if (option.startsWith("--metrics=")) {
+					metricsFile = Paths.get(option.substring("--metrics=".length()));
+				} else {
+					throw new IllegalArgumentException("Unknown option: " + option);
+				}
+			}
+
+			if (command.length - from < 3) throw new IllegalArgumentException("Expected " + command[0] + " [--compression=<name>] [--metrics=<report>] <input> <output> <mappings> [<classpath>...]");
+			Path input = Paths.get(command[from]);
+			if (!Files.isReadable(input)) throw new IllegalArgumentException("Can't read input file " + input);
+
+			Path output = Paths.get(command[from + 1]);
+			if (Files.exists(output)) throw new IllegalArgumentException("Output file already exists at " + output);
+
+			Path[] classpath = Arrays.stream(command).skip(from + 3).map(Paths::get).toArray(Path[]::new);
+			for (Path path : classpath) {
+				if (!Files.isReadable(path)) throw new IllegalArgumentException("Missing file from classpath: " + path);
+			}
+
+			MappingBlob blob = getBlob(Paths.get(command[from + 2]));
+			boolean reverse = "REOBF".equals(command[0]);
+			slots.acquire();
+			Metrics metrics = new Metrics(reverse ? "reobf" : "remap");
+			try {
+				LoadedClasspath loaded = getClasspath(classpath, metrics);
+				//The reversed tables are kept on the blob, so are only built by the first job which needs them
+				Main.remap(Main.getTables(blob, reverse, metrics), input, output, compression, metrics, loaded.indexed, loaded.hierarchy);
+			} finally {
+				metrics.finish();
+				slots.release();
+			}
+
+			String response = (reverse ? "Reobfuscated " : "Remapped ") + input + " to " + output + " in " + metrics.getWallTime() / 1000000 + "ms";
+			if (metricsFile != null) {
+				try {
+					metrics.writeJson(metricsFile);
+				} catch (IOException e) {
+					response += ", but unable to write metrics to " + metricsFile + ": " + e;
+				}
+			}
+			return response;
+		}
+
+		default:
+			throw new IllegalArgumentException("Unknown command: " + command[0]);
+		}
+	}
+
+	private MappingBlob getBlob(Path file) throws IOException {
+		Path mappings = file.toAbsolutePath().normalize();
+
+		try {
+			return get(blobs, mappings, () -> new LoadedBlob(mappings)).blob;
+		} catch (NoSuchFileException e) {
+			throw new IllegalArgumentException("Invalid mappings file " + mappings);
+		}
+	}
+
+	/** Get the given classpath swapped for its stubs and with its hierarchy read, recording any (re)loading in the given metrics */
+	private LoadedClasspath getClasspath(Path[] classpath, Metrics metrics) throws IOException {
+		Path[] jars = Arrays.stream(classpath).map(path -> path.toAbsolutePath().normalize()).toArray(Path[]::new);
+
+		return get(classpaths, Arrays.asList(jars), () -> new LoadedClasspath(jars, metrics));
+	}
+
+	/**
+	 * Get the value for the given key from the given cache, loading it if it is missing or no longer current.
+	 * Loading happens outside of the cache's locks, so only jobs which want the same value wait for it to be loaded.
+	 */
+	private static <K, T extends Loaded> T get(Map<K, CompletableFuture<T>> cache, K key, Loader<T> loader) throws IOException {
+		while (true) {
+			CompletableFuture<T> future = cache.get(key);
+
+			if (future == null) {
+				CompletableFuture<T> loading = new CompletableFuture<>();
+				future = cache.putIfAbsent(key, loading);
+
+				if (future == null) {
+					try {
+						T value = loader.load();
+						loading.complete(value);
+						return value;
+					} catch (IOException | RuntimeException | Error e) {
+						cache.remove(key, loading);
+						loading.completeExceptionally(e);
+						throw e;
+					}
+				}
+			}
+
+			T value;
+			try {
+				value = future.join();
+			} catch (CompletionException e) {
+				//Whoever was loading it failed, which they will have already taken out of the cache
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException) throw (IOException) cause;
+				if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+				throw e;
+			}
+
+			if (value.isCurrent()) return value;
+			cache.remove(key, future); //Gone stale, so load it again
+		}
+	}
+
+	/**
+	 * Ask a running daemon to remap the given input
+	 *
+	 * @param input The jar to remap
+	 * @param output Where to write the remapped jar
+	 * @param mappings The {@link MappingBlob} to remap with
+	 * @param classpath Any jars needed to resolve the input's hierarchy
+	 *
+	 * @return The daemon's response, or <code>null</code> if no daemon is running
+	 *
+	 * @throws IllegalStateException If the daemon fails to remap the input
+	 */
+	public static String submit(Path input, Path output, Path mappings, Path... classpath) {
+		return submit(input, output, mappings, false, classpath);
+	}
+
+	/**
+	 * Ask a running daemon to remap the given input, or reobfuscate it back to Notch names
+	 *
+	 * @param input The jar to remap
+	 * @param output Where to write the remapped jar
+	 * @param mappings The {@link MappingBlob} to remap with
+	 * @param reverse Whether to remap from MCP names back to Notch names
+	 * @param classpath Any jars needed to resolve the input's hierarchy
+	 *
+	 * @return The daemon's response, or <code>null</code> if no daemon is running
+	 *
+	 * @throws IllegalStateException If the daemon fails to remap the input
+	 */
+	public static String submit(Path input, Path output, Path mappings, boolean reverse, Path... classpath) {
+		return submit(input, output, mappings, reverse, JarWriter.Compression.DEFAULT, null, classpath);
+	}
+
+	/**
+	 * Ask a running daemon to remap the given input, or reobfuscate it back to Notch names, as the command line would in process
+	 *
+	 * @param input The jar to remap
+	 * @param output Where to write the remapped jar
+	 * @param mappings The {@link MappingBlob} to remap with
+	 * @param reverse Whether to remap from MCP names back to Notch names
+	 * @param compression How hard to compress the remapped jar
+	 * @param metricsFile Where the daemon should write the JSON report of the job's metrics, or <code>null</code> for nowhere
+	 * @param classpath Any jars needed to resolve the input's hierarchy
+	 *
+	 * @return The daemon's response, or <code>null</code> if no daemon is running
+	 *
+	 * @throws IllegalStateException If the daemon fails to remap the input
+	 */
+	public static String submit(Path input, Path output, Path mappings, boolean reverse, JarWriter.Compression compression, Path metricsFile, Path... classpath) {
+		StringBuilder command = new StringBuilder(reverse ? "REOBF" : "REMAP");
+		command.append("\t--compression=").append(compression.name().toLowerCase(Locale.ENGLISH));
+		if (metricsFile != null) command.append("\t--metrics=").append(metricsFile.toAbsolutePath());
+		command.append('\t').append(input.toAbsolutePath());
+		command.append('\t').append(output.toAbsolutePath());
+		command.append('\t').append(mappings.toAbsolutePath());
+		for (Path path : classpath) {
+			command.append('\t').append(path.toAbsolutePath());
+		}
+
+		return send(command.toString());
+	}
+
+	/** Ask a running daemon to stop, returning whether there was one */
+	public static boolean stop() {
+		return send("STOP") != null;
+	}
+
+	private static String send(String command) {
+		List<String> state;
+		try {
+			state = Files.readAllLines(STATE, StandardCharsets.UTF_8);
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			throw new RuntimeException("Error reading daemon state from " + STATE, e);
+		}
+		if (state.isEmpty()) return null;
+
+		String[] parts = state.get(0).split(" ");
+		try (Socket socket = new Socket()) {
+			socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(parts[0])));
+
+			Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+			out.write(parts[1] + '\n' + command + '\n');
+			out.flush();
+
+			String response = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)).readLine();
+			if (response == null) throw new IllegalStateException("Daemon closed the connection without responding");
+
+			int split = response.indexOf('\t');
+			String status = split < 0 ? response : response.substring(0, split);
+			String message = split < 0 ? "" : response.substring(split + 1);
+			if (!"OK".equals(status)) throw new IllegalStateException(message);
+
+			return message;
+		} catch (ConnectException e) {
+			return null; //The daemon must have died without cleaning up
+		} catch (IOException e) {
+			throw new RuntimeException("Error talking to daemon", e);
+		}
+	}
+}
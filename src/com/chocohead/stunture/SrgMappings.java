@@ -0,0 +1,31 @@
+package com.chocohead.stunture;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.chocohead.rift.ClassMapping;
+
+/**
+ * The mappings produced from the SRG, constructors and vanilla jar, before any MCP names are mushed in.
+ * {@link ClassMapping#methods methods} are Notch names to SRG names, {@link ClassMapping#fields fields} are described Notch names to SRG names.
+ * <p>
+ * Straight from the SRG the fields are yet to be described, so are kept in {@link #undescribedFields} until the vanilla jar has been read.
+ *
+ * @author Chocohead
+ */
+class SrgMappings {
+	/** Notch names to {@link ClassMapping}s */
+	public final Map<String, ClassMapping> classes;
+	/** Notch names to their mapped superclass's Notch name */
+	public final Map<String, String> superclasses = new ConcurrentHashMap<>();
+	/** Notch names to their mapped interfaces' Notch names, in declaration order */
+	public final Map<String, List<String>> interfaces = new ConcurrentHashMap<>();
+	/** Notch names to alternating Notch and SRG names of each of their fields, empty once the fields are described */
+	public final Map<String, List<String>> undescribedFields = new HashMap<>();
+
+	public SrgMappings(Map<String, ClassMapping> classes) {
+		this.classes = classes;
+	}
+}
@@ -0,0 +1,222 @@
+package com.chocohead.stunture;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.objectweb.asm.ClassReader;
+
+import net.fabricmc.tinyremapper.TinyRemapper;
+
+import com.chocohead.rift.RemapperTables;
+
+/**
+ * Remaps jars which are too big to hold in memory at once, in batches of classes no bigger than a given budget.
+ * <p>
+ * A first pass over the input only keeps a {@link ClassOutline} of each class, its hierarchy and member signatures without any code.
+ * Each batch is then read back in and remapped on its own remapper, along with stubs written from the outlines of only the classes the batch
+ * refers to (and their supertypes) so the hierarchy it can see is still complete. The output is written as each batch finishes,
+ * so the remapped jar is never held in memory either.
+ * <p>
+ * The budget bounds the (uncompressed) size of the classes being remapped at once, but not everything: the outlines are kept for the whole
+ * remap so still grow with how many classes the input has (though not with their code), a batch which refers to much of the input brings
+ * the stubs of all of it along as context, and each batch's remapper reads the (indexed) classpath again.
+ * Each batch is remapped in name order, and the output of each is written in name order too, so the same input always produces the same jar.
+ *
+ * @author Chocohead
+ */
+final class StreamingRemap {
+	private StreamingRemap() {
+	}
+
+	/**
+	 * Remap the given input to the given output, reading and remapping at most the given number of bytes of classes at once
+	 *
+	 * @param tables The tables to remap with
+	 * @param input The jar to remap
+	 * @param output Where to write the remapped jar
+	 * @param compression How hard to compress the remapped jar
+	 * @param budget How many bytes of classes to remap at once, a single class bigger than this is remapped on its own
+	 * @param metrics The metrics to record each phase in
+	 * @param classpath Any jars needed to resolve the input's hierarchy
+	 *
+	 * @throws IOException If there is an error reading the input, or writing the output
+	 */
+	static void remap(RemapperTables tables, Path input, Path output, JarWriter.Compression compression, long budget, Metrics metrics, Path... classpath) throws IOException {
+		if (budget <= 0) throw new IllegalArgumentException("Invalid memory budget: " + budget);
+
+		JarWriter out = JarWriter.streaming(output, compression);
+		List<List<String>> batches = new ArrayList<>();
+
+		try (ZipFile jar = new ZipFile(input.toFile())) {
+			try (Metrics.Phase phase = metrics.start("copy-resources")) {
+				phase.count("files", out.addNonClassFiles(input));
+			}
+
+			Path[] indexed = Main.indexClasspath(metrics, classpath);
+			Map<String, ClassOutline> outlines = new HashMap<>();
+			PassthroughFilter filter;
+			try (Metrics.Phase phase = metrics.start("index-input")) {
+				Map<String, ZipEntry> classes = new TreeMap<>();
+				for (Enumeration<? extends ZipEntry> entries = jar.entries(); entries.hasMoreElements();) {
+					ZipEntry entry = entries.nextElement();
+					if (entry.isDirectory() || !entry.getName().endsWith(".class")) continue;
+
+					classes.put(entry.getName().substring(0, entry.getName().length() - 6), entry);
+				}
+
+				Map<String, String[]> hierarchy = new HashMap<>();
+				long batchSize = 0, read = 0;
+				for (Entry<String, ZipEntry> entry : classes.entrySet()) {
+					long size = Math.max(0, entry.getValue().getSize());
+
+					if (batches.isEmpty() || batchSize > 0 && batchSize + size > budget) {
+						batches.add(new ArrayList<>());
+						batchSize = 0;
+					}
+
+					byte[] bytes;
+					try (InputStream in = jar.getInputStream(entry.getValue())) {
+						bytes = ClasspathIndex.readFully(in);
+					}
+
+					ClassOutline outline = ClassOutline.outline(bytes);
+					outlines.put(entry.getKey(), outline);
+					hierarchy.put(entry.getKey(), outline.supertypes());
+					batches.get(batches.size() - 1).add(entry.getKey());
+					batchSize += bytes.length;
+					read += bytes.length;
+				}
+
+				filter = PassthroughFilter.forHierarchy(tables, hierarchy, indexed);
+				phase.count("classes", classes.size()).count("bytes", read).count("batches", batches.size());
+			}
+
+			for (List<String> batch : batches) {
+				remapBatch(tables, jar, batch, filter, indexed, outlines, metrics, out);
+			}
+		} finally {
+			Main.close(out, metrics, "write-output");
+		}
+	}
+
+	/** Remap the given batch of classes from the given jar, with stubs of the input's classes it refers to as context */
+	private static void remapBatch(RemapperTables tables, ZipFile jar, List<String> classes, PassthroughFilter filter, Path[] classpath,
+			Map<String, ClassOutline> outlines, Metrics metrics, JarWriter out) throws IOException {
+		Path remapJar = Files.createTempFile("stunture-remap", ".jar");
+		Path contextJar = Files.createTempFile("stunture-context", ".jar");
+
+		try {
+			Set<String> remapping = new HashSet<>();
+			Set<String> referenced = new HashSet<>();
+			int passthrough = 0;
+			long read = 0;
+			try (Metrics.Phase phase = metrics.start("split-batch");
+					ZipOutputStream remapOut = new ZipOutputStream(Files.newOutputStream(remapJar))) {
+				for (String name : classes) {
+					String entryName = name.concat(".class");
+
+					byte[] bytes;
+					try (InputStream in = jar.getInputStream(jar.getEntry(entryName))) {
+						bytes = ClasspathIndex.readFully(in);
+					}
+
+					if (filter.canPassthrough(bytes)) {
+						out.accept(name, bytes);
+						passthrough++;
+					} else {
+						Main.writeEntry(remapOut, entryName, bytes);
+						remapping.add(name);
+						addReferences(bytes, referenced);
+					}
+					read += bytes.length;
+				}
+
+				phase.count("passthrough", passthrough).count("bytes", read).count("remapping", remapping.size());
+			}
+			if (remapping.isEmpty()) return;
+
+			try (Metrics.Phase phase = metrics.start("write-context"); ZipOutputStream contextOut = new ZipOutputStream(Files.newOutputStream(contextJar))) {
+				//Everything referred to needs its supertypes too, so the remapper can see which members it inherits
+				Set<String> context = new TreeSet<>();
+				Deque<String> queue = new ArrayDeque<>(referenced);
+				while (!queue.isEmpty()) {
+					String name = queue.pop();
+					ClassOutline outline = outlines.get(name);
+					if (outline == null || !context.add(name)) continue; //Either from the classpath or already seen
+
+					for (String type : outline.supertypes()) {
+						if (type != null) queue.push(type);
+					}
+				}
+				context.removeAll(remapping);
+
+				for (String name : context) {
+					Main.writeEntry(contextOut, name.concat(".class"), outlines.get(name).stub());
+				}
+				phase.count("classes", context.size());
+			}
+
+			Map<String, byte[]> remapped = new ConcurrentSkipListMap<>();
+			TinyRemapper remapper = Main.createRemapper(tables, metrics);
+			try {
+				try (Metrics.Phase phase = metrics.start("read-classes")) {
+					remapper.read(classpath);
+					remapper.read(contextJar, remapJar);
+					phase.count("jars", classpath.length + 2);
+				}
+
+				try (Metrics.Phase phase = metrics.start("apply")) {
+					remapper.apply(remapJar, phase.countClasses(remapped::put));
+				}
+			} finally {
+				remapper.finish();
+			}
+
+			//The remapper finishes classes in any order, so they're sorted first to keep the output stable
+			for (Entry<String, byte[]> entry : remapped.entrySet()) {
+				out.accept(entry.getKey(), entry.getValue());
+			}
+		} finally {
+			Files.deleteIfExists(remapJar);
+			Files.deleteIfExists(contextJar);
+		}
+	}
+
+	/** Add the name of every class the given class's constant pool names, taking the element type of any arrays */
+	private static void addReferences(byte[] bytes, Set<String> into) {
+		ClassReader reader = new ClassReader(bytes);
+		char[] buffer = new char[reader.getMaxStringLength()];
+
+		for (int i = 1; i < reader.getItemCount(); i++) {
+			int offset = reader.getItem(i);
+			if (offset <= 0 || bytes[offset - 1] != 7) continue; //Not a CONSTANT_Class
+
+			String name = reader.readUTF8(offset, buffer);
+			if (name.charAt(0) == '[') {
+				int element = name.lastIndexOf('[') + 1;
+				if (name.charAt(element) != 'L') continue; //Primitive array
+
+				name = name.substring(element + 1, name.length() - 1);
+			}
+			into.add(name);
+		}
+	}
+}